@@ -0,0 +1,171 @@
+package fr.polytech.schedule.components;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.enterprise.concurrent.ManagedExecutorService;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.transaction.Status;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import fr.polytech.entities.Delivery;
+import fr.polytech.entities.Drone;
+import fr.polytech.entities.Parcel;
+import fr.polytech.entities.TimeState;
+
+/**
+ * Throughput of the assignment strategies, scheduling a whole day of requests
+ * on a fleet of drones of various flight times. The number of deliveries each
+ * strategy manages to schedule is reported as well. A single booking on the
+ * empty fleet is measured too, every drone being a candidate.
+ * <p>
+ * Rolling back a day invalidates the occupancy of every drone booked, they
+ * are rebuilt before the next invocation so that the index is measured warm.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class AssignmentBenchmark {
+
+    @Param({ "10", "100" })
+    private int drones;
+
+    @Param({ "FIRST_FIT", "LEAST_LOADED", "BEST_FIT" })
+    private String strategy;
+
+    // Size of the fleets scanned in parallel, 0 to always scan in parallel
+    @Param({ "2048" })
+    private int parallelScan;
+
+    private EntityManagerFactory factory;
+    private EntityManager entityManager;
+    private LocalTransactions transactions;
+    private ScheduleBean schedule;
+    private OccupancyIndex occupancyIndex;
+    private ExecutorService pool;
+
+    private List<ScheduleRequest> requests;
+    private ScheduleRequest request;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Scheduled {
+        public long scheduled;
+        public long rejected;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        factory = Persistence.createEntityManagerFactory("schedule-benchmark");
+        entityManager = factory.createEntityManager();
+        transactions = new LocalTransactions();
+        schedule = ScheduleBenchmark.newScheduleBean(entityManager, transactions);
+        ScheduleBenchmark.inject(schedule, "assignment", Assignment.valueOf(strategy));
+        ScheduleBenchmark.inject(schedule, "parallelScan", parallelScan);
+        // Stands for the managed executor of the container
+        pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        ScheduleBenchmark.inject(schedule, "executor", Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { ManagedExecutorService.class }, (proxy, method, args) -> {
+                    try {
+                        return method.invoke(pool, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+        occupancyIndex = ScheduleBenchmark.injected(schedule, "occupancyIndex");
+
+        long tomorrow = SlotClock.today() + 1;
+        requests = new ArrayList<>();
+
+        entityManager.getTransaction().begin();
+        Parcel parcel = new Parcel("PPPPPPPPP1", "address", "carrier", "Dupond");
+        entityManager.persist(parcel);
+        for (int i = 0; i < drones; i++) {
+            Drone drone = new Drone(String.format("%03d", i));
+            drone.setFlightTime(i * DailyPlanRule.FLIGHT_TIME_BEFORE_REVIEW / drones);
+            entityManager.persist(drone);
+        }
+        // As many requests as drones on every slot, spread over the day
+        for (int i = 0; i < drones; i++) {
+            for (int slot = 0; slot < ScheduleBean.NUMBER_OF_SLOT_PER_DAYS; slot++) {
+                Delivery delivery = new Delivery(String.format("D%04d%05d", slot, i));
+                delivery.setParcel(parcel);
+                entityManager.persist(delivery);
+                GregorianCalendar date = SlotClock.toCalendar(SlotClock.key(tomorrow, slot));
+                requests.add(new ScheduleRequest(date, delivery));
+            }
+        }
+        // The first slot from midday not reserved for a charge, free for the first drone at least
+        int slot = ScheduleBean.NUMBER_OF_SLOT_PER_DAYS / 2;
+        while (DailyPlanRule.reservations(0)[slot] != TimeState.AVAILABLE) {
+            slot++;
+        }
+        request = requests.get(slot);
+        entityManager.getTransaction().commit();
+        transactions.complete(Status.STATUS_COMMITTED);
+        entityManager.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdownNow();
+        entityManager.close();
+        factory.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void begin() {
+        entityManager.getTransaction().begin();
+        // Rebuilds the occupancies invalidated by the previous rollback
+        CriteriaQuery<Drone> criteria = entityManager.getCriteriaBuilder().createQuery(Drone.class);
+        criteria.select(criteria.from(Drone.class));
+        for (Drone drone : entityManager.createQuery(criteria).getResultList()) {
+            occupancyIndex.of(drone);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollback() {
+        entityManager.getTransaction().rollback();
+        transactions.complete(Status.STATUS_ROLLEDBACK);
+        entityManager.clear();
+    }
+
+    @Benchmark
+    public List<ScheduleResult> scheduleDay(Scheduled counters) throws Exception {
+        List<ScheduleResult> results = schedule.scheduleDeliveries(requests);
+        for (ScheduleResult result : results) {
+            if (result.isScheduled()) {
+                counters.scheduled++;
+            } else {
+                counters.rejected++;
+            }
+        }
+        return results;
+    }
+
+    @Benchmark
+    public boolean scheduleDelivery() throws Exception {
+        return schedule.scheduleDelivery(request.getDate(), request.getDelivery());
+    }
+}
@@ -0,0 +1,70 @@
+package fr.polytech.schedule.components;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * Synchronization registry of the resource local transactions of the
+ * benchmarks, completed by hand
+ */
+public class LocalTransactions implements TransactionSynchronizationRegistry {
+
+    private final Map<Object, Object> resources = new HashMap<>();
+    private final List<Synchronization> synchronizations = new ArrayList<>();
+    private boolean rollbackOnly;
+
+    /**
+     * Run the synchronizations of the transaction
+     *
+     * @param status of the completed transaction
+     */
+    public void complete(int status) {
+        for (Synchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+        synchronizations.clear();
+        resources.clear();
+        rollbackOnly = false;
+    }
+
+    @Override
+    public Object getTransactionKey() {
+        return this;
+    }
+
+    @Override
+    public void putResource(Object key, Object value) {
+        resources.put(key, value);
+    }
+
+    @Override
+    public Object getResource(Object key) {
+        return resources.get(key);
+    }
+
+    @Override
+    public void registerInterposedSynchronization(Synchronization sync) {
+        synchronizations.add(sync);
+    }
+
+    @Override
+    public int getTransactionStatus() {
+        return Status.STATUS_ACTIVE;
+    }
+
+    @Override
+    public void setRollbackOnly() {
+        rollbackOnly = true;
+    }
+
+    @Override
+    public boolean getRollbackOnly() {
+        return rollbackOnly;
+    }
+}
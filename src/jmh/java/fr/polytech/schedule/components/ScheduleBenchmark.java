@@ -0,0 +1,192 @@
+package fr.polytech.schedule.components;
+
+import java.lang.reflect.Field;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+import javax.transaction.Status;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import fr.polytech.entities.Delivery;
+import fr.polytech.entities.Drone;
+import fr.polytech.entities.Parcel;
+import fr.polytech.entities.TimeState;
+
+/**
+ * Benchmarks of the schedule bean against an embedded database.
+ * <p>
+ * Every drone has a quarter of tomorrow planned, and the benchmarked slot is
+ * taken for the first half of the fleet. Each invocation runs in its own
+ * transaction, rolled back afterwards, like a call to the stateless bean.
+ * <p>
+ * Rolling back invalidates the occupancy of the drone booked by the
+ * invocation, it is rebuilt before the next one so that the benchmarks
+ * measure the index warm, as in production.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ScheduleBenchmark {
+
+    private static final int BENCHMARKED_SLOT = 21;
+
+    @Param({ "10", "100", "1000" })
+    private int drones;
+
+    private EntityManagerFactory factory;
+    private EntityManager entityManager;
+    private LocalTransactions transactions;
+    private ScheduleBean schedule;
+
+    private GregorianCalendar now;
+    private GregorianCalendar date;
+    private Delivery delivery;
+    private Drone drone;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        factory = Persistence.createEntityManagerFactory("schedule-benchmark");
+        entityManager = factory.createEntityManager();
+        transactions = new LocalTransactions();
+        schedule = newScheduleBean(entityManager, transactions);
+
+        long tomorrow = SlotClock.today() + 1;
+        now = new GregorianCalendar();
+        date = SlotClock.toCalendar(SlotClock.key(tomorrow, BENCHMARKED_SLOT));
+
+        entityManager.getTransaction().begin();
+        Parcel parcel = new Parcel("PPPPPPPPP1", "address", "carrier", "Dupond");
+        entityManager.persist(parcel);
+        for (int i = 0; i < drones; i++) {
+            Drone d = new Drone(String.format("%03d", i));
+            entityManager.persist(d);
+            for (int slot = i % 4; slot < ScheduleBean.NUMBER_OF_SLOT_PER_DAYS; slot += 4) {
+                GregorianCalendar slotDate = SlotClock.toCalendar(SlotClock.key(tomorrow, slot));
+                if (slot == i % 4 && i % 10 == 0) {
+                    Delivery planned = new Delivery(String.format("P%09d", i));
+                    planned.setParcel(parcel);
+                    entityManager.persist(planned);
+                    schedule.createDeliveryTimeSlot(slotDate, planned, d);
+                } else {
+                    schedule.createChargingTimeSlot(slotDate, d);
+                }
+            }
+            if (i < drones / 2 && i % 4 != BENCHMARKED_SLOT % 4) {
+                schedule.createChargingTimeSlot(date, d);
+            }
+        }
+        delivery = new Delivery("BBBBBBBBB1");
+        delivery.setParcel(parcel);
+        entityManager.persist(delivery);
+        entityManager.getTransaction().commit();
+        transactions.complete(Status.STATUS_COMMITTED);
+        entityManager.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        entityManager.close();
+        factory.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void begin() throws Exception {
+        entityManager.getTransaction().begin();
+        drone = schedule.findById("000").get();
+        // Rebuilds the occupancy invalidated by the previous rollback
+        schedule.findFreeDrone(date);
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollback() {
+        entityManager.getTransaction().rollback();
+        transactions.complete(Status.STATUS_ROLLEDBACK);
+        entityManager.clear();
+    }
+
+    @Benchmark
+    public boolean scheduleDelivery() throws Exception {
+        return schedule.scheduleDelivery(date, delivery);
+    }
+
+    @Benchmark
+    public Optional<Drone> getFreeDrone() throws Exception {
+        return schedule.findFreeDrone(date);
+    }
+
+    @Benchmark
+    public Delivery getNextDelivery() throws Exception {
+        return schedule.getNextDelivery(now);
+    }
+
+    @Benchmark
+    public List<TimeState> getCurrentPlanning() throws Exception {
+        return schedule.getCurrentPlanning("000", date);
+    }
+
+    @Benchmark
+    public FleetPlanning getFleetPlanning() throws Exception {
+        return schedule.getFleetPlanning(date);
+    }
+
+    @Benchmark
+    public TimeState dateIsAvailable() {
+        return schedule.dateIsAvailable(date, drone);
+    }
+
+    @Benchmark
+    public List<TimeState> convertTimeSlotsToList() {
+        return schedule.convertTimeSlotsToList(drone, SlotClock.day(SlotClock.keyOf(date)));
+    }
+
+    /**
+     * Wires the bean the way the container does
+     */
+    static ScheduleBean newScheduleBean(EntityManager entityManager, LocalTransactions transactions)
+            throws ReflectiveOperationException {
+        OccupancyIndex occupancyIndex = new OccupancyIndex();
+        inject(occupancyIndex, "entityManagerFactory", entityManager.getEntityManagerFactory());
+        inject(occupancyIndex, "transactions", transactions);
+
+        ScheduleMetrics metrics = new ScheduleMetrics();
+        inject(metrics, "occupancyIndex", occupancyIndex);
+
+        OperatingCalendars calendars = new OperatingCalendars();
+        calendars.load();
+
+        ScheduleBean schedule = new ScheduleBean();
+        inject(schedule, "entityManager", entityManager);
+        inject(schedule, "occupancyIndex", occupancyIndex);
+        inject(schedule, "metrics", metrics);
+        inject(schedule, "calendars", calendars);
+        return schedule;
+    }
+
+    static void inject(Object bean, String name, Object value) throws ReflectiveOperationException {
+        Field field = bean.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(bean, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> T injected(Object bean, String name) throws ReflectiveOperationException {
+        Field field = bean.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return (T) field.get(bean);
+    }
+}
@@ -0,0 +1,74 @@
+package fr.polytech.schedule.components;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.polytech.entities.TimeState;
+
+/**
+ * Assignment strategies shipped with the schedule
+ */
+public enum Assignment implements AssignmentStrategy {
+
+    /**
+     * The first free drone by id, the historical behaviour
+     */
+    FIRST_FIT {
+        @Override
+        public boolean isFirstFit() {
+            return true;
+        }
+
+        @Override
+        public long cost(DroneOccupancy occupancy, long key) {
+            return 0;
+        }
+    },
+
+    /**
+     * The free drone having the fewest deliveries on the day
+     */
+    LEAST_LOADED {
+        @Override
+        public long cost(DroneOccupancy occupancy, long key) {
+            return occupancy.deliveries(SlotClock.day(key));
+        }
+    },
+
+    /**
+     * The free drone whose next charge block is already active, so that the
+     * delivery does not take a new charge, then the drone furthest from its
+     * review, then the least loaded
+     */
+    BEST_FIT {
+        @Override
+        public long cost(DroneOccupancy occupancy, long key) {
+            long newCharge = occupancy.nextChargeBlock(key) == TimeState.RESERVED_FOR_CHARGE ? 1 : 0;
+            long wear = Math.max(0, Math.min(occupancy.getFlightTime(), DailyPlanRule.FLIGHT_TIME_BEFORE_REVIEW));
+            return newCharge << 32 | wear << 16 | occupancy.deliveries(SlotClock.day(key));
+        }
+    };
+
+    private static final Logger log = Logger.getLogger(Assignment.class.getName());
+
+    public static final String PROPERTY = "schedule.assignment";
+
+    /**
+     * @return the strategy selected by the <code>schedule.assignment</code>
+     *         property, first-fit by default
+     */
+    public static AssignmentStrategy configured() {
+        String name = System.getProperty(PROPERTY, FIRST_FIT.name());
+        for (Assignment assignment : values()) {
+            if (assignment.name().equalsIgnoreCase(name)) {
+                return assignment;
+            }
+        }
+        try {
+            return Class.forName(name).asSubclass(AssignmentStrategy.class).getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            log.log(Level.WARNING, "Unknown assignment strategy [" + name + "], first-fit is used", e);
+            return FIRST_FIT;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package fr.polytech.schedule.components;
+
+/**
+ * Choice of the drone a delivery is assigned to, among the drones free on its
+ * slot. The drone of lowest cost is chosen, ties being broken by drone id.
+ * <p>
+ * The strategy is selected with the <code>schedule.assignment</code> property,
+ * either one of the {@link Assignment} names or the class name of an
+ * implementation having a public no-arg constructor.
+ */
+public interface AssignmentStrategy {
+
+    /**
+     * @return true if every free drone costs the same, the first one is then
+     *         taken without looking at the others
+     */
+    default boolean isFirstFit() {
+        return false;
+    }
+
+    /**
+     * @param occupancy of a drone free on the slot
+     * @param key       slot of the delivery
+     * @return cost of assigning the delivery to the drone
+     */
+    long cost(DroneOccupancy occupancy, long key);
+}
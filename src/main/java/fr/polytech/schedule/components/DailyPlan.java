@@ -0,0 +1,189 @@
+package fr.polytech.schedule.components;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+import javax.persistence.Version;
+
+import fr.polytech.entities.TimeSlot;
+import fr.polytech.entities.TimeState;
+
+/**
+ * Day of a drone persisted as a single row, instead of one
+ * <code>TimeSlot</code> row per recorded slot: the state of each slot of the
+ * day, and the delivery of each delivery slot. Slots not recorded follow the
+ * {@link DailyPlanRule} reservations, as for the timeslots.
+ * <p>
+ * Used instead of the timeslots when the <code>schedule.plan.packed</code>
+ * property is set, the timeslots of the drones are then derived from the rows
+ * where they are still needed. The version of a row tells the occupancy index
+ * it has been written by another node.
+ * <p>
+ * The class must be listed in the persistence unit of the application, the
+ * schedule refuses to start packed otherwise.
+ */
+@Entity
+@IdClass(DailyPlan.Key.class)
+@Table(name = "DAILY_PLAN")
+public class DailyPlan implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final boolean PACKED = Boolean.getBoolean("schedule.plan.packed");
+
+    private static final byte NOT_RECORDED = -1;
+    private static final TimeState[] STATES = TimeState.values();
+
+    @Id
+    private String droneId;
+
+    @Id
+    private long epochDay;
+
+    // One byte per slot, the ordinal of its state
+    @Column(nullable = false, length = 64)
+    private byte[] states;
+
+    // Delivery ids by slot, "slot:deliveryId" separated by commas
+    @Column(nullable = false, length = 2048)
+    private String deliveries = "";
+
+    @Version
+    private int version;
+
+    protected DailyPlan() {
+        // JPA
+    }
+
+    public DailyPlan(String droneId, long epochDay) {
+        this.droneId = droneId;
+        this.epochDay = epochDay;
+        this.states = new byte[ScheduleBean.NUMBER_OF_SLOT_PER_DAYS];
+        Arrays.fill(states, NOT_RECORDED);
+    }
+
+    public String getDroneId() {
+        return droneId;
+    }
+
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    /**
+     * @return version of the row, incremented by each write
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @param slot index of the slot in the day
+     * @return the recorded state of the slot, null if it is not recorded
+     */
+    public TimeState stateAt(int slot) {
+        return slot < 0 || slot >= states.length || states[slot] == NOT_RECORDED ? null : STATES[states[slot]];
+    }
+
+    /**
+     * @param slot  index of the slot in the day
+     * @param state
+     */
+    public void record(int slot, TimeState state) {
+        states[slot] = (byte) state.ordinal();
+    }
+
+    /**
+     * Record a delivery on the slot
+     *
+     * @param slot       index of the slot in the day
+     * @param deliveryId
+     */
+    public void deliver(int slot, String deliveryId) {
+        record(slot, TimeState.DELIVERY);
+        deliveries = (deliveries.isEmpty() ? "" : deliveries + ",") + slot + ":" + deliveryId;
+    }
+
+    /**
+     * @param slot index of the slot in the day
+     * @return id of the delivery of the slot, null if there is none
+     */
+    public String deliveryAt(int slot) {
+        for (String entry : deliveries.isEmpty() ? new String[0] : deliveries.split(",")) {
+            int separator = entry.indexOf(':');
+            if (Integer.parseInt(entry.substring(0, separator)) == slot) {
+                return entry.substring(separator + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param from index of a slot in the day
+     * @return the first delivery slot from the given one, -1 if there is none
+     */
+    public int firstDelivery(int from) {
+        for (int slot = Math.max(0, from); slot < states.length; slot++) {
+            if (stateAt(slot) == TimeState.DELIVERY) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the timeslots of the recorded slots, not managed
+     */
+    public List<TimeSlot> toTimeSlots() {
+        List<TimeSlot> timeslots = new ArrayList<>();
+        for (int slot = 0; slot < states.length; slot++) {
+            TimeState state = stateAt(slot);
+            if (state != null) {
+                timeslots.add(new TimeSlot(SlotClock.toCalendar(SlotClock.key(epochDay, slot)), state));
+            }
+        }
+        return timeslots;
+    }
+
+    /**
+     * Identifier of a daily plan, the drone and the day
+     */
+    public static class Key implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private String droneId;
+        private long epochDay;
+
+        public Key() {
+            // JPA
+        }
+
+        public Key(String droneId, long epochDay) {
+            this.droneId = droneId;
+            this.epochDay = epochDay;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return epochDay == key.epochDay && Objects.equals(droneId, key.droneId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(droneId, epochDay);
+        }
+    }
+}
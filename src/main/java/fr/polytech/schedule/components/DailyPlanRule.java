@@ -0,0 +1,123 @@
+package fr.polytech.schedule.components;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.IntStream;
+
+import fr.polytech.entities.TimeState;
+
+/**
+ * Charge and review reservations of a day, computed from the flight time of
+ * the drone. They are not persisted, only the slots actually used are stored
+ * as timeslots.
+ */
+public final class DailyPlanRule {
+
+    public static final int FLIGHT_TIME_BEFORE_REVIEW = 80;
+    public static final int REVIEW_SLOTS = slots(180); // 3h review
+    public static final int CHARGE_SLOTS = slots(60);
+    public static final int SLOTS_BEFORE_FIRST_CHARGE = slots(45);
+    public static final int SLOTS_BETWEEN_CHARGES = slots(30);
+
+    private static final ConcurrentMap<Integer, Template> templates = new ConcurrentHashMap<>();
+
+    private DailyPlanRule() {
+    }
+
+    private static int slots(int minutes) {
+        return Math.max(1, minutes / SlotClock.SLOT_MINUTES);
+    }
+
+    /**
+     * @param flightTime of the drone
+     * @return reservations of the day, shared and must not be modified
+     */
+    public static TimeState[] reservations(int flightTime) {
+        return template(flightTime).states;
+    }
+
+    /**
+     * @param flightTime of the drone
+     * @return bitmask of the reserved slots of the day
+     */
+    public static long reservedMask(int flightTime) {
+        return template(flightTime).busy;
+    }
+
+    /**
+     * @param flightTime of the drone
+     * @return bitmask of the slots of the day reserved for a charge
+     */
+    public static long chargeMask(int flightTime) {
+        return template(flightTime).charge;
+    }
+
+    /**
+     * @param slot index of the slot in the day
+     * @param free true for the flight times leaving the slot free
+     * @return the flight times, up to the review threshold, for which the slot
+     *         is free (or reserved)
+     */
+    public static int[] flightTimes(int slot, boolean free) {
+        return IntStream.rangeClosed(0, FLIGHT_TIME_BEFORE_REVIEW)
+                .filter(flightTime -> (reservations(flightTime)[slot] == TimeState.AVAILABLE) == free).toArray();
+    }
+
+    private static Template template(int flightTime) {
+        // Every flight time out of the threshold leads to the same day
+        int key = flightTime < 0 || flightTime > FLIGHT_TIME_BEFORE_REVIEW ? -1 : flightTime;
+        return templates.computeIfAbsent(key, k -> new Template(compute(flightTime)));
+    }
+
+    private static TimeState[] compute(int flightTime) {
+        TimeState[] states = new TimeState[ScheduleBean.NUMBER_OF_SLOT_PER_DAYS];
+        Arrays.fill(states, TimeState.AVAILABLE);
+
+        // Check if a review is required
+        int droneNeedsReview = FLIGHT_TIME_BEFORE_REVIEW - flightTime;
+        boolean reviewScheduled = false;
+        int droneNeedsCharge = SLOTS_BEFORE_FIRST_CHARGE;
+
+        for (int i = 0; i < states.length; i++) {
+            if (droneNeedsReview == 0 && !reviewScheduled) {
+                for (int j = 0; j < REVIEW_SLOTS && i < states.length; j++, i++) {
+                    states[i] = TimeState.REVIEW;
+                }
+                reviewScheduled = true;
+            } else if (droneNeedsCharge == 0) {
+                for (int k = 0; k < CHARGE_SLOTS && i < states.length; k++, i++) {
+                    states[i] = TimeState.RESERVED_FOR_CHARGE;
+                }
+                droneNeedsCharge = SLOTS_BETWEEN_CHARGES;
+            } else {
+                // It's available so probably a delivery
+                droneNeedsCharge--;
+                droneNeedsReview--;
+            }
+        }
+        return states;
+    }
+
+    private static final class Template {
+        private final TimeState[] states;
+        private final long busy;
+        private final long charge;
+
+        private Template(TimeState[] states) {
+            this.states = states;
+            long mask = 0;
+            long chargeMask = 0;
+            for (int i = 0; i < states.length; i++) {
+                if (states[i] != TimeState.AVAILABLE) {
+                    mask |= 1L << i;
+                }
+                if (states[i] == TimeState.RESERVED_FOR_CHARGE) {
+                    chargeMask |= 1L << i;
+                }
+            }
+            this.busy = mask;
+            this.charge = chargeMask;
+        }
+    }
+}
@@ -4,12 +4,15 @@ import java.util.GregorianCalendar;
 
 import javax.ejb.Local;
 import java.util.List;
+import java.util.Optional;
 
 import fr.polytech.entities.Delivery;
+import fr.polytech.entities.Drone;
 import fr.polytech.entities.TimeState;
 import fr.polytech.schedule.exception.DeliveryAlreadyScheduledException;
 import fr.polytech.schedule.exception.DroneNotFoundException;
 import fr.polytech.schedule.exception.OutsideOfDeliveryHoursException;
+import fr.polytech.schedule.exception.ShardNotOwnedException;
 import fr.polytech.schedule.exception.TimeslotUnvailableException;
 import fr.polytech.schedule.exception.ZeroDronesInWarehouseException;
 import fr.polytech.schedule.exception.NoFreeDroneAtThisTimeSlotException;
@@ -30,11 +33,100 @@ public interface DeliveryScheduler {
          * @throws OutsideOfDeliveryHoursException
          * @throws TimeslotUnvailableException
          * @throws DeliveryAlreadyScheduledException
+         * @throws ShardNotOwnedException             if this node does not own
+         *                                            the shard of the delivery
          */
         boolean scheduleDelivery(GregorianCalendar date, Delivery delivery)
                         throws ZeroDronesInWarehouseException, NoFreeDroneAtThisTimeSlotException,
                         OutsideOfDeliveryHoursException, TimeslotUnvailableException, DeliveryAlreadyScheduledException;
 
+        /**
+         * Same as {@link #scheduleDelivery(GregorianCalendar, Delivery)} without
+         * exceptions, a rejection is returned with its {@link Rejection} reason
+         *
+         * @param date     of delivery
+         * @param delivery to schedule
+         * @return the booked drone, or the reason of the rejection
+         */
+        ScheduleResult trySchedule(GregorianCalendar date, Delivery delivery);
+
+        /**
+         * Schedule many deliveries in a single transaction, the fleet is loaded
+         * once and a rejected delivery does not stop the others
+         *
+         * @param requests dates and deliveries to schedule
+         * @return the outcome of each request, in the same order
+         * @throws ZeroDronesInWarehouseException
+         */
+        List<ScheduleResult> scheduleDeliveries(List<ScheduleRequest> requests) throws ZeroDronesInWarehouseException;
+
+        /**
+         * Looks for a drone having nothing planned on the timeslot of the date,
+         * chosen by the configured {@link AssignmentStrategy}, the first one by
+         * id by default
+         *
+         * @param date of the timeslot
+         * @return the free drone, empty if every drone is busy
+         * @throws ZeroDronesInWarehouseException
+         */
+        Optional<Drone> findFreeDrone(GregorianCalendar date) throws ZeroDronesInWarehouseException;
+
+        /**
+         * Looks for the first slots, from the date, having a free drone. Each
+         * option is a different slot, the search goes up to a week from the day
+         * of the date
+         *
+         * @param from  earliest date of the delivery
+         * @param count maximum number of options
+         * @return the options, earliest first, empty if no drone is free
+         * @throws ZeroDronesInWarehouseException
+         * @throws IllegalArgumentException       if the count is negative
+         */
+        List<SlotOption> findEarliestSlots(GregorianCalendar from, int count) throws ZeroDronesInWarehouseException;
+
+        /**
+         * Planning of the drone for today
+         *
+         * @param droneID
+         * @return state of each slot of the day
+         * @throws DroneNotFoundException
+         * @throws ZeroDronesInWarehouseException
+         */
         public List<TimeState> getCurrentPlanning(String droneID)
                         throws DroneNotFoundException, ZeroDronesInWarehouseException;
+
+        /**
+         * Planning of the drone for the day of the date
+         *
+         * @param droneID
+         * @param date    any time of the day
+         * @return state of each slot of the day
+         * @throws DroneNotFoundException
+         * @throws ZeroDronesInWarehouseException
+         */
+        public List<TimeState> getCurrentPlanning(String droneID, GregorianCalendar date)
+                        throws DroneNotFoundException, ZeroDronesInWarehouseException;
+
+        /**
+         * Planning of the drone for each day of a range, read from the slots of
+         * the range only
+         *
+         * @param droneID
+         * @param from    any time of the first day
+         * @param to      any time of the last day
+         * @return state of each slot of each day, empty if the range is empty
+         * @throws DroneNotFoundException
+         * @throws ZeroDronesInWarehouseException
+         */
+        List<List<TimeState>> getPlanning(String droneID, GregorianCalendar from, GregorianCalendar to)
+                        throws DroneNotFoundException, ZeroDronesInWarehouseException;
+
+        /**
+         * Planning of every drone for the day of the date, read at once
+         *
+         * @param date any time of the day
+         * @return state of each slot of the day for each drone, ordered by id
+         * @throws ZeroDronesInWarehouseException
+         */
+        FleetPlanning getFleetPlanning(GregorianCalendar date) throws ZeroDronesInWarehouseException;
 }
@@ -0,0 +1,525 @@
+package fr.polytech.schedule.components;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.polytech.entities.TimeSlot;
+import fr.polytech.entities.TimeState;
+
+/**
+ * Occupancy of one drone, one page of
+ * <code>ScheduleBean.NUMBER_OF_SLOT_PER_DAYS</code> states per day. Slots are
+ * given as {@link SlotClock} keys. Every day starts from the reservations of
+ * {@link DailyPlanRule}, overridden by the recorded timeslots.
+ * <p>
+ * Only the days of the horizon, from today on, are kept in memory. Pages are
+ * created the first time a day is touched and dropped once the day is past,
+ * past days are read from the drone timeslots.
+ * <p>
+ * Slots being booked are claimed first, a slot can only be claimed once until
+ * the transaction booking it completes.
+ * <p>
+ * A {@link Listener} is told every time a slot becomes free or taken.
+ */
+public class DroneOccupancy {
+
+    /**
+     * Told of the changes of the free slots, under the lock of the occupancy
+     */
+    public interface Listener {
+
+        /**
+         * @param occupancy
+         * @param key       slot having changed
+         * @param free      true if the slot is now free
+         */
+        void changed(DroneOccupancy occupancy, long key, boolean free);
+
+        /**
+         * The whole occupancy has changed
+         *
+         * @param occupancy
+         */
+        void reset(DroneOccupancy occupancy);
+    }
+
+    private static final Listener NO_LISTENER = new Listener() {
+        @Override
+        public void changed(DroneOccupancy occupancy, long key, boolean free) {
+            // Nobody to tell
+        }
+
+        @Override
+        public void reset(DroneOccupancy occupancy) {
+            // Nobody to tell
+        }
+    };
+
+    private static final long DAY_MASK = -1L >>> (Long.SIZE - ScheduleBean.NUMBER_OF_SLOT_PER_DAYS);
+
+    private final String droneId;
+    private final Listener listener;
+    private final Map<Long, Day> days = new HashMap<>();
+    private final Set<Long> claims = ConcurrentHashMap.newKeySet();
+    // Version of the daily plan reflected by each day, when the days are packed
+    private final Map<Long, Integer> planVersions = new HashMap<>();
+    private Day lastDay;
+    private long horizon;
+    private int indexedSlots;
+    private int flightTime;
+    private Object identity;
+    private volatile long lastAccess;
+    private volatile long validatedAt;
+
+    public DroneOccupancy(String droneId, long horizon) {
+        this(droneId, horizon, NO_LISTENER);
+    }
+
+    public DroneOccupancy(String droneId, long horizon, Listener listener) {
+        this.droneId = droneId;
+        this.horizon = horizon;
+        this.listener = listener;
+    }
+
+    public String getDroneId() {
+        return droneId;
+    }
+
+    /**
+     * Number of timeslots this index has seen, used to detect that the drone
+     * has been modified elsewhere
+     */
+    public synchronized int getIndexedSlots() {
+        return indexedSlots;
+    }
+
+    /**
+     * Flight time the reservations of the days have been computed with
+     */
+    public synchronized int getFlightTime() {
+        return flightTime;
+    }
+
+    /**
+     * Persistent identifier of the drone the index has been built from
+     */
+    public synchronized Object getIdentity() {
+        return identity;
+    }
+
+    /**
+     * @return last access, in nanoseconds
+     */
+    public long getLastAccess() {
+        return lastAccess;
+    }
+
+    /**
+     * @return last time the index has been rebuilt from the drone, in
+     *         nanoseconds
+     */
+    public long getValidatedAt() {
+        return validatedAt;
+    }
+
+    public void touch(long now) {
+        lastAccess = now;
+    }
+
+    public void validated(long now) {
+        validatedAt = now;
+        lastAccess = now;
+    }
+
+    /**
+     * @return true if a transaction is booking one of the slots
+     */
+    public boolean hasClaims() {
+        return !claims.isEmpty();
+    }
+
+    /**
+     * Force the next access to rebuild the index, claims are kept
+     */
+    public synchronized void invalidate() {
+        identity = new Object();
+    }
+
+    /**
+     * Claim a slot before booking it
+     *
+     * @param key
+     * @return false if the slot is already claimed
+     */
+    public synchronized boolean claim(long key) {
+        if (!claims.add(key)) {
+            return false;
+        }
+        if (!isBusy(key)) {
+            listener.changed(this, key, false);
+        }
+        return true;
+    }
+
+    public synchronized void release(long key) {
+        if (claims.remove(key) && !isBusy(key)) {
+            listener.changed(this, key, true);
+        }
+    }
+
+    public boolean isClaimed(long key) {
+        return claims.contains(key);
+    }
+
+    /**
+     * @param epochDay
+     * @return true if the day is held in memory
+     */
+    public synchronized boolean covers(long epochDay) {
+        return epochDay >= horizon;
+    }
+
+    /**
+     * Move the beginning of the horizon, dropping the pages of the past days
+     *
+     * @param today
+     */
+    public synchronized void advance(long today) {
+        if (today > horizon) {
+            horizon = today;
+            days.keySet().removeIf(day -> day < today);
+            planVersions.keySet().removeIf(day -> day < today);
+            lastDay = null;
+            listener.reset(this);
+        }
+    }
+
+    /**
+     * Rebuild the whole index from the drone timeslots
+     *
+     * @param timeslots
+     * @param flightTime of the drone
+     * @param identity   persistent identifier of the drone
+     */
+    public synchronized void rebuild(List<TimeSlot> timeslots, int flightTime, Object identity) {
+        days.clear();
+        planVersions.clear();
+        lastDay = null;
+        indexedSlots = 0;
+        this.flightTime = flightTime;
+        this.identity = identity;
+        for (TimeSlot ts : timeslots) {
+            record(SlotClock.keyOf(ts.getDate()), ts.getState());
+        }
+        listener.reset(this);
+    }
+
+    /**
+     * Rebuild the whole index from recorded slots, instead of the drone
+     * timeslots
+     *
+     * @param recorded     state of the recorded slots, by key
+     * @param indexedSlots number of timeslots of the drone
+     * @param flightTime   of the drone
+     * @param identity     persistent identifier of the drone
+     */
+    public synchronized void restore(Map<Long, TimeState> recorded, int indexedSlots, int flightTime,
+            Object identity) {
+        days.clear();
+        planVersions.clear();
+        lastDay = null;
+        this.flightTime = flightTime;
+        this.identity = identity;
+        recorded.forEach(this::update);
+        this.indexedSlots = indexedSlots;
+        listener.reset(this);
+    }
+
+    /**
+     * @return state of the recorded slots of the horizon, by key
+     */
+    public synchronized Map<Long, TimeState> recorded() {
+        Map<Long, TimeState> recorded = new HashMap<>();
+        for (Day day : days.values()) {
+            for (long mask = day.recorded; mask != 0; mask &= mask - 1) {
+                int slot = Long.numberOfTrailingZeros(mask);
+                recorded.put(SlotClock.key(day.epochDay, slot), day.states[slot]);
+            }
+        }
+        return recorded;
+    }
+
+    /**
+     * @param epochDay
+     * @return version of the daily plan of the day reflected by the index, -1
+     *         if it is not known
+     */
+    public synchronized int getPlanVersion(long epochDay) {
+        return planVersions.getOrDefault(epochDay, -1);
+    }
+
+    /**
+     * @param epochDay
+     * @param version  of the daily plan of the day reflected by the index
+     */
+    public synchronized void planned(long epochDay, int version) {
+        planVersions.put(epochDay, version);
+    }
+
+    /**
+     * Record a new timeslot
+     *
+     * @param key
+     * @param state
+     */
+    public synchronized void record(long key, TimeState state) {
+        indexedSlots++;
+        update(key, state);
+    }
+
+    /**
+     * Change the state of an already recorded timeslot
+     *
+     * @param key
+     * @param state
+     */
+    public synchronized void update(long key, TimeState state) {
+        int slot = SlotClock.slot(key);
+        long epochDay = SlotClock.day(key);
+        if (slot < 0 || slot >= ScheduleBean.NUMBER_OF_SLOT_PER_DAYS || epochDay < horizon) {
+            return;
+        }
+        Day day = find(epochDay);
+        if (day == null) {
+            day = new Day(epochDay, flightTime);
+            days.put(epochDay, day);
+            lastDay = day;
+        }
+        day.states[slot] = state;
+        day.recorded |= 1L << slot;
+        day.setCharge(slot, state);
+        long busy = day.busy;
+        if (state == TimeState.AVAILABLE) {
+            day.busy &= ~(1L << slot);
+        } else {
+            day.busy |= 1L << slot;
+        }
+        if (busy != day.busy && !claims.contains(key)) {
+            listener.changed(this, key, state == TimeState.AVAILABLE);
+        }
+    }
+
+    /**
+     * @param key slot of a covered day
+     * @return the state of the slot
+     */
+    public synchronized TimeState stateAt(long key) {
+        int slot = SlotClock.slot(key);
+        if (slot < 0 || slot >= ScheduleBean.NUMBER_OF_SLOT_PER_DAYS) {
+            return TimeState.AVAILABLE;
+        }
+        Day day = find(SlotClock.day(key));
+        return day == null ? DailyPlanRule.reservations(flightTime)[slot] : day.states[slot];
+    }
+
+    /**
+     * @param key slot of a covered day
+     * @return true if nothing is planned on the slot and it is not claimed
+     */
+    public synchronized boolean isFree(long key) {
+        return !isClaimed(key) && !isBusy(key);
+    }
+
+    /**
+     * @param epochDay covered day
+     * @return bitmask of the slots of the day neither planned nor claimed
+     */
+    public synchronized long freeMask(long epochDay) {
+        Day day = find(epochDay);
+        long free = ~(day == null ? DailyPlanRule.reservedMask(flightTime) : day.busy) & DAY_MASK;
+        for (long key : claims) {
+            int slot = SlotClock.slot(key);
+            if (SlotClock.day(key) == epochDay && slot >= 0 && slot < ScheduleBean.NUMBER_OF_SLOT_PER_DAYS) {
+                free &= ~(1L << slot);
+            }
+        }
+        return free;
+    }
+
+    /**
+     * @param epochDay covered day
+     * @return a copy of the states of the day
+     */
+    public synchronized TimeState[] planning(long epochDay) {
+        Day day = find(epochDay);
+        return day == null ? DailyPlanRule.reservations(flightTime).clone() : day.states.clone();
+    }
+
+    /**
+     * @param epochDay covered day
+     * @return number of deliveries planned on the day
+     */
+    public synchronized int deliveries(long epochDay) {
+        int deliveries = 0;
+        for (TimeState state : statesOf(epochDay)) {
+            if (state == TimeState.DELIVERY) {
+                deliveries++;
+            }
+        }
+        return deliveries;
+    }
+
+    /**
+     * @param key slot of a covered day
+     * @return state of the first charge block from the slot, RESERVED_FOR_CHARGE
+     *         if a delivery on the slot would activate it, AVAILABLE if there is
+     *         none left in the day
+     */
+    public synchronized TimeState nextChargeBlock(long key) {
+        TimeState[] states = statesOf(SlotClock.day(key));
+        for (int i = Math.max(0, SlotClock.slot(key)); i < states.length; i++) {
+            if (states[i] == TimeState.RESERVED_FOR_CHARGE || states[i] == TimeState.CHARGING) {
+                return states[i];
+            }
+        }
+        return TimeState.AVAILABLE;
+    }
+
+    /**
+     * Finds the charge block a delivery on the slot uses: the first block, from
+     * the slot, reserved for charge or charging
+     *
+     * @param key slot of a delivery on a covered day
+     * @return bitmask of the slots of the block still reserved, to be turned
+     *         into charging, 0 if the block is already charging or if there is
+     *         none left in the day
+     */
+    public synchronized long chargeBlock(long key) {
+        int slot = SlotClock.slot(key);
+        if (slot < 0 || slot >= ScheduleBean.NUMBER_OF_SLOT_PER_DAYS) {
+            return 0;
+        }
+        Day day = find(SlotClock.day(key));
+        long reserved = day == null ? DailyPlanRule.chargeMask(flightTime) : day.reservedForCharge;
+        long charging = day == null ? 0 : day.charging;
+        return chargeBlock(reserved, charging, slot);
+    }
+
+    /**
+     * @param states of a day
+     * @param slot   of a delivery
+     * @return the slots of the charge block to turn into charging, as
+     *         {@link #chargeBlock(long)}
+     */
+    public static long chargeBlock(TimeState[] states, int slot) {
+        long reserved = 0;
+        long charging = 0;
+        for (int i = 0; i < states.length; i++) {
+            if (states[i] == TimeState.RESERVED_FOR_CHARGE) {
+                reserved |= 1L << i;
+            } else if (states[i] == TimeState.CHARGING) {
+                charging |= 1L << i;
+            }
+        }
+        return chargeBlock(reserved, charging, slot);
+    }
+
+    private static long chargeBlock(long reserved, long charging, int slot) {
+        long next = (reserved | charging) & (-1L << slot);
+        if (next == 0 || (charging & Long.lowestOneBit(next)) != 0) {
+            return 0;
+        }
+        int start = Long.numberOfTrailingZeros(next);
+        // The block goes on as long as the slots are reserved
+        int length = Long.numberOfTrailingZeros(~(reserved >>> start));
+        return (-1L >>> (64 - length)) << start;
+    }
+
+    /**
+     * @param key
+     * @return false if no timeslot has been recorded on the slot, true if one
+     *         has been or if the day is not covered
+     */
+    public synchronized boolean isRecorded(long key) {
+        long epochDay = SlotClock.day(key);
+        int slot = SlotClock.slot(key);
+        if (epochDay < horizon || slot < 0 || slot >= ScheduleBean.NUMBER_OF_SLOT_PER_DAYS) {
+            return true;
+        }
+        Day day = find(epochDay);
+        return day != null && (day.recorded & (1L << slot)) != 0;
+    }
+
+    /**
+     * Planning of a day read from the timeslots, used for the days out of the
+     * horizon
+     *
+     * @param timeslots
+     * @param epochDay
+     * @param flightTime of the drone
+     * @return states of the day
+     */
+    public static TimeState[] planning(List<TimeSlot> timeslots, long epochDay, int flightTime) {
+        TimeState[] states = DailyPlanRule.reservations(flightTime).clone();
+        for (TimeSlot ts : timeslots) {
+            long key = SlotClock.keyOf(ts.getDate());
+            int slot = SlotClock.slot(key);
+            if (SlotClock.day(key) == epochDay && slot >= 0 && slot < states.length) {
+                states[slot] = ts.getState();
+            }
+        }
+        return states;
+    }
+
+    private boolean isBusy(long key) {
+        int slot = SlotClock.slot(key);
+        if (slot < 0 || slot >= ScheduleBean.NUMBER_OF_SLOT_PER_DAYS) {
+            return false;
+        }
+        Day day = find(SlotClock.day(key));
+        long busy = day == null ? DailyPlanRule.reservedMask(flightTime) : day.busy;
+        return (busy & (1L << slot)) != 0;
+    }
+
+    private TimeState[] statesOf(long epochDay) {
+        Day day = find(epochDay);
+        return day == null ? DailyPlanRule.reservations(flightTime) : day.states;
+    }
+
+    private Day find(long epochDay) {
+        if (lastDay == null || lastDay.epochDay != epochDay) {
+            Day day = days.get(epochDay);
+            if (day == null) {
+                return null;
+            }
+            lastDay = day;
+        }
+        return lastDay;
+    }
+
+    private static final class Day {
+        private final long epochDay;
+        private final TimeState[] states;
+        private long busy;
+        private long reservedForCharge;
+        private long charging;
+        private long recorded;
+
+        private Day(long epochDay, int flightTime) {
+            this.epochDay = epochDay;
+            this.states = DailyPlanRule.reservations(flightTime).clone();
+            this.busy = DailyPlanRule.reservedMask(flightTime);
+            this.reservedForCharge = DailyPlanRule.chargeMask(flightTime);
+        }
+
+        private void setCharge(int slot, TimeState state) {
+            long bit = 1L << slot;
+            reservedForCharge = state == TimeState.RESERVED_FOR_CHARGE ? reservedForCharge | bit
+                    : reservedForCharge & ~bit;
+            charging = state == TimeState.CHARGING ? charging | bit : charging & ~bit;
+        }
+    }
+}
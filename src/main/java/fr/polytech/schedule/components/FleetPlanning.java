@@ -0,0 +1,68 @@
+package fr.polytech.schedule.components;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import fr.polytech.entities.TimeState;
+
+/**
+ * Planning of every drone of the warehouse for one day. States are stored as
+ * their ordinal, one byte per slot, one row of
+ * <code>ScheduleBean.NUMBER_OF_SLOT_PER_DAYS</code> slots per drone, the rows
+ * being in the order of the drone ids.
+ */
+public class FleetPlanning implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final TimeState[] STATES = TimeState.values();
+
+    private final long epochDay;
+    private final String[] droneIds;
+    private final byte[] states;
+
+    FleetPlanning(long epochDay, String[] droneIds, byte[] states) {
+        this.epochDay = epochDay;
+        this.droneIds = droneIds;
+        this.states = states;
+    }
+
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    public int getSlotsPerDay() {
+        return ScheduleBean.NUMBER_OF_SLOT_PER_DAYS;
+    }
+
+    public List<String> getDroneIds() {
+        return Collections.unmodifiableList(Arrays.asList(droneIds));
+    }
+
+    /**
+     * @param drone row of the drone
+     * @param slot  index of the slot in the day
+     * @return ordinal of the state of the drone on the slot
+     */
+    public byte ordinalAt(int drone, int slot) {
+        return states[drone * ScheduleBean.NUMBER_OF_SLOT_PER_DAYS + slot];
+    }
+
+    /**
+     * @param drone row of the drone
+     * @param slot  index of the slot in the day
+     * @return state of the drone on the slot
+     */
+    public TimeState stateAt(int drone, int slot) {
+        return STATES[ordinalAt(drone, slot)];
+    }
+
+    /**
+     * @return a copy of the whole matrix, row by row
+     */
+    public byte[] toByteArray() {
+        return states.clone();
+    }
+}
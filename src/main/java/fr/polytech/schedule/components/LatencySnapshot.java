@@ -0,0 +1,58 @@
+package fr.polytech.schedule.components;
+
+import java.beans.ConstructorProperties;
+import java.io.Serializable;
+
+/**
+ * Summary of a {@link LatencyHistogram}, in nanoseconds
+ */
+public class LatencySnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    @ConstructorProperties({ "count", "mean", "p50", "p90", "p99", "max" })
+    public LatencySnapshot(long count, double mean, long p50, long p90, long p99, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    static LatencySnapshot of(LatencyHistogram histogram) {
+        return new LatencySnapshot(histogram.getCount(), histogram.getMean(), histogram.getValueAtPercentile(50),
+                histogram.getValueAtPercentile(90), histogram.getValueAtPercentile(99), histogram.getMax());
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
@@ -0,0 +1,28 @@
+package fr.polytech.schedule.components;
+
+import javax.ejb.EJB;
+import javax.interceptor.AroundInvoke;
+import javax.interceptor.InvocationContext;
+
+/**
+ * Measures the latency of the business methods and counts the exceptions they
+ * throw
+ */
+public class MetricsInterceptor {
+
+    @EJB
+    private ScheduleMetrics metrics;
+
+    @AroundInvoke
+    public Object measure(InvocationContext context) throws Exception {
+        long start = metrics.start();
+        try {
+            return context.proceed();
+        } catch (Exception e) {
+            metrics.thrown(e);
+            throw e;
+        } finally {
+            metrics.record(context.getMethod().getName(), start);
+        }
+    }
+}
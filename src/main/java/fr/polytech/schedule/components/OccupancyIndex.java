@@ -0,0 +1,614 @@
+package fr.polytech.schedule.components;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceUnit;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.Root;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+import fr.polytech.entities.Drone;
+import fr.polytech.entities.TimeSlot;
+import fr.polytech.entities.TimeState;
+
+/**
+ * Occupancy of every drone of the warehouse, shared by all the schedule beans.
+ * Days before today are not indexed, they are answered from the drone
+ * timeslots.
+ * <p>
+ * The index may be ahead of the drone seen by a transaction, since it also
+ * holds the bookings of the other transactions. It is rebuilt when the drone
+ * has been recreated, when its flight time has changed, and when a
+ * transaction having written to it rolls back.
+ * <p>
+ * It is also a read-through cache of the plannings: at most
+ * <code>schedule.cache.drones</code> drones are kept, the least recently used
+ * being evicted first. Once an occupancy is older than
+ * <code>schedule.cache.ttl</code> seconds the timeslots of its drone are
+ * counted, and it is rebuilt if the drone holds timeslots the index has not
+ * seen. Timeslots written by other nodes are only seen then.
+ * <p>
+ * When <code>schedule.log.dir</code> is set, the occupancies are also kept in
+ * a {@link PlanningLog}, an occupancy not built yet being restored from the
+ * log rather than from the timeslots of the drone.
+ * <p>
+ * The number of free drones per slot of the searched days is kept by each
+ * {@link ScheduleShard}, up to date from the changes of the occupancies of its
+ * drones, and dropped whenever one of them is rebuilt.
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class OccupancyIndex {
+
+    private static final Logger log = Logger.getLogger(OccupancyIndex.class.getName());
+
+    private static final int MAX_DRONES = Integer.getInteger("schedule.cache.drones", 10000);
+    private static final String LOG_DIRECTORY = System.getProperty("schedule.log.dir");
+    private static final long TTL_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("schedule.cache.ttl", 300L));
+
+    private final ConcurrentMap<String, DroneOccupancy> occupancies = new ConcurrentHashMap<>();
+
+    private final ScheduleShard[] shards = ScheduleShard.newShards();
+
+    private final DroneOccupancy.Listener availabilityListener = new DroneOccupancy.Listener() {
+        @Override
+        public void changed(DroneOccupancy occupancy, long key, boolean free) {
+            shard(occupancy.getDroneId()).changed(occupancy.getDroneId(), key, free);
+        }
+
+        @Override
+        public void reset(DroneOccupancy occupancy) {
+            // Only the shard of the drone counts it
+            shard(occupancy.getDroneId()).reset();
+        }
+    };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder restored = new LongAdder();
+
+    private PlanningLog planningLog;
+
+    // Days of the drones persisted as daily plans instead of timeslots
+    private volatile boolean packed = DailyPlan.PACKED;
+
+    @PersistenceUnit
+    private EntityManagerFactory entityManagerFactory;
+
+    @Resource
+    private TransactionSynchronizationRegistry transactions;
+
+    @PostConstruct
+    public void open() {
+        if (packed) {
+            checkPackable();
+        }
+        if (LOG_DIRECTORY == null) {
+            return;
+        }
+        try {
+            planningLog = PlanningLog.open(Paths.get(LOG_DIRECTORY));
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Planning log cannot be opened, occupancies are rebuilt from the timeslots", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        if (planningLog != null) {
+            try {
+                planningLog.close();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Planning log cannot be compacted", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the occupancy of the drone, rebuilt from its timeslots if needed.
+     * The timeslots of the drone are only read when the occupancy is rebuilt,
+     * the staleness check of an expired occupancy counts them.
+     *
+     * @param drone
+     * @return occupancy of the drone
+     */
+    public DroneOccupancy of(Drone drone) {
+        long now = System.nanoTime();
+        long today = SlotClock.today();
+        // Compared as logged
+        String identity = String.valueOf(entityManagerFactory.getPersistenceUnitUtil().getIdentifier(drone));
+        DroneOccupancy occupancy = occupancies.get(drone.getDroneId());
+        if (occupancy == null) {
+            occupancy = occupancies.computeIfAbsent(drone.getDroneId(), id -> new DroneOccupancy(id, today, availabilityListener));
+            evictIfFull();
+        }
+        synchronized (occupancy) {
+            occupancy.advance(today);
+            if (!Objects.equals(occupancy.getIdentity(), identity)
+                    || occupancy.getFlightTime() != drone.getFlightTime()) {
+                // The log does not know the versions of the daily plans
+                if (occupancy.getIdentity() == null && planningLog != null && !packed
+                        && planningLog.restore(occupancy, identity, drone.getFlightTime(), (int) countTimeSlots(drone))) {
+                    log.log(Level.FINEST, "Restored occupancy of [" + drone.getDroneId() + "] from the planning log");
+                    restored.increment();
+                } else {
+                    rebuild(occupancy, drone, identity, today);
+                }
+                occupancy.validated(now);
+                misses.increment();
+            } else if (now - occupancy.getValidatedAt() > TTL_NANOS) {
+                // Slots written elsewhere, the index may be ahead with the bookings in progress.
+                // Packed days are not counted, their rows are read again
+                if (packed || countTimeSlots(drone) > occupancy.getIndexedSlots()) {
+                    rebuild(occupancy, drone, identity, today);
+                }
+                occupancy.validated(now);
+                misses.increment();
+            } else {
+                occupancy.touch(now);
+                hits.increment();
+            }
+        }
+        return occupancy;
+    }
+
+    private void rebuild(DroneOccupancy occupancy, Drone drone, String identity, long today) {
+        log.log(Level.FINEST, "Rebuilding occupancy of [" + drone.getDroneId() + "]");
+        if (packed) {
+            List<DailyPlan> plans = plansOf(drone, today, Long.MAX_VALUE);
+            occupancy.rebuild(toTimeSlots(plans), drone.getFlightTime(), identity);
+            plans.forEach(plan -> occupancy.planned(plan.getEpochDay(), plan.getVersion()));
+        } else {
+            occupancy.rebuild(drone.getTimeSlots(), drone.getFlightTime(), identity);
+        }
+        if (planningLog != null) {
+            log(PlanningLog.Event.rebuilt(occupancy));
+        }
+    }
+
+    /**
+     * @param drone
+     * @return number of timeslots of the drone, counted by the database
+     */
+    private long countTimeSlots(Drone drone) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+            Root<Drone> root = criteria.from(Drone.class);
+            Join<Drone, TimeSlot> slot = root.join("timeSlots");
+            criteria.select(builder.count(slot)).where(builder.equal(root.get("droneId"), drone.getDroneId()));
+            return entityManager.createQuery(criteria).getSingleResult();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * @param drone
+     * @param firstDay
+     * @param lastDay
+     * @return the timeslots of the drone, derived from its daily plans between
+     *         the days when they are packed
+     */
+    List<TimeSlot> timeSlotsOf(Drone drone, long firstDay, long lastDay) {
+        return packed ? toTimeSlots(plansOf(drone, firstDay, lastDay)) : drone.getTimeSlots();
+    }
+
+    private List<DailyPlan> plansOf(Drone drone, long firstDay, long lastDay) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+            CriteriaQuery<DailyPlan> criteria = builder.createQuery(DailyPlan.class);
+            Root<DailyPlan> root = criteria.from(DailyPlan.class);
+            criteria.select(root).where(builder.equal(root.get("droneId"), drone.getDroneId()),
+                    builder.between(root.<Long>get("epochDay"), firstDay, lastDay));
+            return entityManager.createQuery(criteria).getResultList();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private static List<TimeSlot> toTimeSlots(List<DailyPlan> plans) {
+        List<TimeSlot> timeslots = new ArrayList<>();
+        for (DailyPlan plan : plans) {
+            timeslots.addAll(plan.toTimeSlots());
+        }
+        return timeslots;
+    }
+
+    /**
+     * Bring the day of the drone up to date with its daily plan, if the plan
+     * has been written since the index read it
+     *
+     * @param drone
+     * @param plan  of the drone, as read by the current transaction
+     * @return true if the day has been updated
+     */
+    public boolean refresh(Drone drone, DailyPlan plan) {
+        DroneOccupancy occupancy = of(drone);
+        long day = plan.getEpochDay();
+        synchronized (occupancy) {
+            if (occupancy.getPlanVersion(day) == plan.getVersion()) {
+                return false;
+            }
+            log.log(Level.FINEST, "Refreshing day " + day + " of [" + drone.getDroneId() + "]");
+            for (int slot = 0; slot < ScheduleBean.NUMBER_OF_SLOT_PER_DAYS; slot++) {
+                long key = SlotClock.key(day, slot);
+                TimeState state = plan.stateAt(slot);
+                if (state != null && occupancy.stateAt(key) != state) {
+                    if (occupancy.isRecorded(key)) {
+                        occupancy.update(key, state);
+                    } else {
+                        occupancy.record(key, state);
+                    }
+                }
+            }
+            occupancy.planned(day, plan.getVersion());
+            return true;
+        }
+    }
+
+    /**
+     * @return true if the days of the drones are persisted as daily plans
+     */
+    public boolean isPacked() {
+        return packed;
+    }
+
+    /**
+     * Switch between the timeslots and the daily plans, the index is then
+     * rebuilt from the new ones
+     *
+     * @param packed
+     * @throws IllegalStateException if the daily plans are not managed
+     */
+    public void setPacked(boolean packed) {
+        if (packed) {
+            checkPackable();
+        }
+        this.packed = packed;
+        occupancies.clear();
+        for (ScheduleShard shard : shards) {
+            shard.reset();
+        }
+    }
+
+    private void checkPackable() {
+        try {
+            entityManagerFactory.getMetamodel().entity(DailyPlan.class);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("Packed plans need " + DailyPlan.class.getName()
+                    + " to be listed in the persistence unit", e);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of occupancies restored from the planning log
+     */
+    public long getRestored() {
+        return restored.sum();
+    }
+
+    public int getSize() {
+        return occupancies.size();
+    }
+
+    /**
+     * Evict the least recently used tenth of the drones once the cache is
+     * full, drones being booked are kept
+     */
+    private void evictIfFull() {
+        if (occupancies.size() <= MAX_DRONES) {
+            return;
+        }
+        occupancies.values().stream().filter(occupancy -> !occupancy.hasClaims())
+                .sorted(Comparator.comparingLong(DroneOccupancy::getLastAccess))
+                .limit(Math.max(1, MAX_DRONES / 10)).forEach(occupancy -> {
+                    // Claimed since it was selected, claims are taken under the same lock
+                    synchronized (occupancy) {
+                        if (!occupancy.hasClaims() && occupancies.remove(occupancy.getDroneId(), occupancy)) {
+                            evictions.increment();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Claim the slot of the drone for the current transaction, the claim is
+     * released when the transaction completes
+     *
+     * @param drone
+     * @param key
+     * @return false if another transaction is booking the slot
+     */
+    public boolean claim(Drone drone, long key) {
+        DroneOccupancy occupancy = of(drone);
+        while (true) {
+            synchronized (occupancy) {
+                if (occupancies.get(drone.getDroneId()) == occupancy) {
+                    if (!occupancy.claim(key)) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+            // Evicted meanwhile, a claim on it would not be seen by the other transactions.
+            // The occupancy replacing it is claimed once the monitor of this one is released
+            occupancy = of(drone);
+        }
+        DroneOccupancy claimedOccupancy = occupancy;
+        String droneId = drone.getDroneId();
+        transactions.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+                // Nothing to do before the commit
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                claimedOccupancy.release(key);
+                if (status != Status.STATUS_COMMITTED) {
+                    // What has been recorded by the transaction is lost
+                    log.log(Level.FINEST, "Invalidating occupancy of [" + droneId + "]");
+                    claimedOccupancy.invalidate();
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Log a slot of the drone written by the current transaction, once the
+     * transaction commits
+     *
+     * @param drone
+     * @param key
+     * @param state
+     * @param created true if the slot is a new timeslot of the drone
+     */
+    public void journal(Drone drone, long key, TimeState state, boolean created) {
+        if (planningLog == null) {
+            return;
+        }
+        log(new PlanningLog.Event(drone.getDroneId(), key, state, created));
+    }
+
+    /**
+     * Log the event once the current transaction commits, an occupancy rebuilt
+     * replacing the events of its drone still pending
+     */
+    private void log(PlanningLog.Event event) {
+        if (transactions.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            planningLog.recorded(Collections.singletonList(event));
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<PlanningLog.Event> pending = (List<PlanningLog.Event>) transactions.getResource(PlanningLog.class);
+        if (pending == null) {
+            List<PlanningLog.Event> events = new ArrayList<>();
+            transactions.putResource(PlanningLog.class, events);
+            transactions.registerInterposedSynchronization(new Synchronization() {
+                @Override
+                public void beforeCompletion() {
+                    // Nothing is logged before the commit
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == Status.STATUS_COMMITTED) {
+                        planningLog.recorded(events);
+                    }
+                }
+            });
+            pending = events;
+        }
+        if (event.isRebuilt()) {
+            pending.removeIf(logged -> logged.getDroneId().equals(event.getDroneId()));
+        }
+        pending.add(event);
+    }
+
+    /**
+     * @return the timeslots index of the current transaction, a new one if
+     *         there is no transaction
+     */
+    public TimeSlotIndex timeSlots() {
+        if (transactions.getTransactionStatus() == Status.STATUS_NO_TRANSACTION) {
+            return new TimeSlotIndex();
+        }
+        TimeSlotIndex index = (TimeSlotIndex) transactions.getResource(TimeSlotIndex.class);
+        if (index == null) {
+            index = new TimeSlotIndex();
+            transactions.putResource(TimeSlotIndex.class, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param drone
+     * @param key
+     * @return the state of the drone on the slot
+     */
+    public TimeState stateAt(Drone drone, long key) {
+        DroneOccupancy occupancy = of(drone);
+        if (occupancy.covers(SlotClock.day(key))) {
+            return occupancy.stateAt(key);
+        }
+        int slot = SlotClock.slot(key);
+        if (slot < 0 || slot >= ScheduleBean.NUMBER_OF_SLOT_PER_DAYS) {
+            return TimeState.AVAILABLE;
+        }
+        long day = SlotClock.day(key);
+        return DroneOccupancy.planning(timeSlotsOf(drone, day, day), day, drone.getFlightTime())[slot];
+    }
+
+    /**
+     * @param drone
+     * @param key
+     * @return true if nothing is planned for the drone on the slot, and no
+     *         transaction is booking it
+     */
+    public boolean isFree(Drone drone, long key) {
+        DroneOccupancy occupancy = of(drone);
+        if (occupancy.covers(SlotClock.day(key))) {
+            return occupancy.isFree(key);
+        }
+        return !occupancy.isClaimed(key) && stateAt(drone, key) == TimeState.AVAILABLE;
+    }
+
+    /**
+     * @param drone
+     * @param epochDay
+     * @return states of the drone on the day
+     */
+    public TimeState[] planning(Drone drone, long epochDay) {
+        DroneOccupancy occupancy = of(drone);
+        if (occupancy.covers(epochDay)) {
+            return occupancy.planning(epochDay);
+        }
+        return DroneOccupancy.planning(timeSlotsOf(drone, epochDay, epochDay), epochDay, drone.getFlightTime());
+    }
+
+    /**
+     * @param drone
+     * @param key   slot of a delivery of the drone
+     * @return slots of the charge block the delivery activates, see
+     *         {@link DroneOccupancy#chargeBlock(long)}
+     */
+    public long chargeBlock(Drone drone, long key) {
+        DroneOccupancy occupancy = of(drone);
+        if (occupancy.covers(SlotClock.day(key))) {
+            return occupancy.chargeBlock(key);
+        }
+        long day = SlotClock.day(key);
+        TimeState[] states = DroneOccupancy.planning(timeSlotsOf(drone, day, day), day, drone.getFlightTime());
+        return DroneOccupancy.chargeBlock(states, SlotClock.slot(key));
+    }
+
+    private ScheduleShard shard(String droneId) {
+        return shards[ScheduleShard.of(droneId)];
+    }
+
+    /**
+     * Returns the number of free drones per slot of the day in a shard, if
+     * they have been counted since the cache TTL
+     *
+     * @param shard    id of the shard
+     * @param epochDay day from today on
+     * @return free drones of the shard on the day, null if they are to be
+     *         counted
+     */
+    public SlotAvailability availability(int shard, long epochDay) {
+        ScheduleShard owner = shards[shard];
+        owner.dropBefore(SlotClock.today());
+        SlotAvailability availability = owner.availability(epochDay);
+        if (availability == null || !availability.isComplete()) {
+            return null;
+        }
+        if (System.nanoTime() - availability.getCountedAt() > TTL_NANOS) {
+            // Drones added or removed by other nodes are only seen by counting again
+            owner.drop(epochDay);
+            return null;
+        }
+        return availability;
+    }
+
+    /**
+     * Count the free drones per slot of the day in a shard
+     *
+     * @param shard    id of the shard
+     * @param epochDay day from today on
+     * @param drones   every drone of the shard, ordered by id
+     * @return free drones of the shard on the day
+     */
+    public SlotAvailability count(int shard, long epochDay, List<Drone> drones) {
+        ScheduleShard owner = shards[shard];
+        SlotAvailability counted = new SlotAvailability(epochDay);
+        if (owner.availability(epochDay) == null) {
+            // Registered before counting, the changes of a drone are applied once it is counted
+            owner.register(counted);
+        }
+        // A day being counted by another search is counted again, not registered
+        for (Drone drone : drones) {
+            DroneOccupancy occupancy = of(drone);
+            synchronized (occupancy) {
+                counted.add(drone.getDroneId(), occupancy.freeMask(epochDay));
+            }
+        }
+        counted.completed();
+        return counted;
+    }
+
+    /**
+     * @param droneId
+     * @return the occupancy of the drone if it is in the cache, null otherwise
+     */
+    public DroneOccupancy cached(String droneId) {
+        return occupancies.get(droneId);
+    }
+
+    /**
+     * @param epochDay
+     * @return number of slots of the day in each state, over the indexed drones
+     *         covering the day
+     */
+    public Map<TimeState, Long> census(long epochDay) {
+        Map<TimeState, Long> census = new EnumMap<>(TimeState.class);
+        for (DroneOccupancy occupancy : occupancies.values()) {
+            if (occupancy.covers(epochDay)) {
+                for (TimeState state : occupancy.planning(epochDay)) {
+                    census.merge(state, 1L, Long::sum);
+                }
+            }
+        }
+        return census;
+    }
+
+    public void evict(String droneId) {
+        occupancies.remove(droneId);
+    }
+}
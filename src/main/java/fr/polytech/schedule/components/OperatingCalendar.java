@@ -0,0 +1,193 @@
+package fr.polytech.schedule.components;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Delivery hours of a warehouse. The rules of a day are applied in order:
+ * <ol>
+ * <li>the hours of the day of the week, the whole planning grid by default,</li>
+ * <li>replaced by the hours of the date if it has some, holidays being closed
+ * dates,</li>
+ * <li>minus the blackout windows of the date.</li>
+ * </ol>
+ * Each day is compiled once into a bitmask of its open slots, checking a slot
+ * is then a single mask test.
+ */
+public class OperatingCalendar {
+
+    private static final long ALL_SLOTS = -1L >>> (Long.SIZE - ScheduleBean.NUMBER_OF_SLOT_PER_DAYS);
+    private static final String CLOSED = "closed";
+
+    private final Map<DayOfWeek, Long> weekly = new EnumMap<>(DayOfWeek.class);
+    private final Map<LocalDate, Long> dates = new HashMap<>();
+    private final Map<LocalDate, List<Long>> blackouts = new HashMap<>();
+    private final ConcurrentMap<Long, Long> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * @return a calendar open on the whole planning grid every day
+     */
+    public static OperatingCalendar alwaysOpen() {
+        return new OperatingCalendar();
+    }
+
+    /**
+     * Reads the rules of a calendar, each property being a rule:
+     *
+     * <pre>
+     * &lt;prefix&gt;weekly.SATURDAY=09:00-12:00
+     * &lt;prefix&gt;weekly.SUNDAY=closed
+     * &lt;prefix&gt;date.2020-12-25=closed
+     * &lt;prefix&gt;blackout.2020-11-03=14:00-15:30,17:00-17:30
+     * </pre>
+     *
+     * @param properties
+     * @param prefix     of the properties of the calendar
+     * @return the calendar
+     * @throws IllegalArgumentException if a rule cannot be read
+     */
+    public static OperatingCalendar parse(Properties properties, String prefix) {
+        OperatingCalendar calendar = new OperatingCalendar();
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith(prefix)) {
+                continue;
+            }
+            String rule = name.substring(prefix.length());
+            String value = properties.getProperty(name).trim();
+            if (rule.startsWith("weekly.")) {
+                DayOfWeek day = DayOfWeek.valueOf(rule.substring("weekly.".length()).toUpperCase());
+                calendar.weekly.put(day, CLOSED.equals(value) ? 0L : hours(value));
+            } else if (rule.startsWith("date.")) {
+                LocalDate date = LocalDate.parse(rule.substring("date.".length()));
+                calendar.dates.put(date, CLOSED.equals(value) ? 0L : hours(value));
+            } else if (rule.startsWith("blackout.")) {
+                LocalDate date = LocalDate.parse(rule.substring("blackout.".length()));
+                for (String window : value.split(",")) {
+                    calendar.blackouts.computeIfAbsent(date, d -> new ArrayList<>()).add(hours(window.trim()));
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown calendar rule [" + name + "]");
+            }
+        }
+        return calendar;
+    }
+
+    /**
+     * @param day  of the week
+     * @param open opening time, null if closed
+     * @param close closing time
+     * @return this calendar
+     */
+    public synchronized OperatingCalendar weekly(DayOfWeek day, LocalTime open, LocalTime close) {
+        weekly.put(day, open == null ? 0L : slots(open, close));
+        compiled.clear();
+        return this;
+    }
+
+    /**
+     * @param date
+     * @param open  opening time, null if closed
+     * @param close closing time
+     * @return this calendar
+     */
+    public synchronized OperatingCalendar date(LocalDate date, LocalTime open, LocalTime close) {
+        dates.put(date, open == null ? 0L : slots(open, close));
+        compiled.clear();
+        return this;
+    }
+
+    /**
+     * @param date
+     * @param from beginning of the window
+     * @param to   end of the window
+     * @return this calendar
+     */
+    public synchronized OperatingCalendar blackout(LocalDate date, LocalTime from, LocalTime to) {
+        blackouts.computeIfAbsent(date, d -> new ArrayList<>()).add(slots(from, to));
+        compiled.clear();
+        return this;
+    }
+
+    /**
+     * @param epochDay
+     * @return bitmask of the slots of the planning open for deliveries
+     */
+    public long openSlots(long epochDay) {
+        Long mask = compiled.get(epochDay);
+        return mask == null ? compile(epochDay) : mask;
+    }
+
+    /**
+     * @param key slot
+     * @return true if deliveries can be made on the slot
+     */
+    public boolean isOpen(long key) {
+        int slot = SlotClock.slot(key);
+        return slot >= 0 && slot < ScheduleBean.NUMBER_OF_SLOT_PER_DAYS
+                && (openSlots(SlotClock.day(key)) & 1L << slot) != 0;
+    }
+
+    /**
+     * @param epochDay
+     * @return the hour the first open slot of the day starts, the opening of
+     *         the planning if the day is closed
+     */
+    public int openingHour(long epochDay) {
+        long open = openSlots(epochDay);
+        int slot = open == 0 ? 0 : Long.numberOfTrailingZeros(open);
+        return (ScheduleBean.STARTING_HOUR * 60 + slot * SlotClock.SLOT_MINUTES) / 60;
+    }
+
+    /**
+     * @param epochDay
+     * @return the hour the last open slot of the day ends, rounded up, the
+     *         opening of the planning if the day is closed
+     */
+    public int closingHour(long epochDay) {
+        long open = openSlots(epochDay);
+        int end = open == 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(open);
+        return (ScheduleBean.STARTING_HOUR * 60 + end * SlotClock.SLOT_MINUTES + 59) / 60;
+    }
+
+    // Cached under the lock of the rules, so that a mask compiled before a change is not kept
+    private synchronized long compile(long epochDay) {
+        LocalDate date = LocalDate.ofEpochDay(epochDay);
+        long mask = dates.getOrDefault(date, weekly.getOrDefault(date.getDayOfWeek(), ALL_SLOTS));
+        for (long blackout : blackouts.getOrDefault(date, new ArrayList<>())) {
+            mask &= ~blackout;
+        }
+        compiled.put(epochDay, mask);
+        return mask;
+    }
+
+    private static long hours(String window) {
+        String[] bounds = window.split("-");
+        if (bounds.length != 2) {
+            throw new IllegalArgumentException("Invalid hours [" + window + "]");
+        }
+        return slots(LocalTime.parse(bounds[0].trim()), LocalTime.parse(bounds[1].trim()));
+    }
+
+    /**
+     * @return bitmask of the slots of the planning starting in [from, to[
+     */
+    private static long slots(LocalTime from, LocalTime to) {
+        long mask = 0;
+        for (int i = 0; i < ScheduleBean.NUMBER_OF_SLOT_PER_DAYS; i++) {
+            int minute = (ScheduleBean.STARTING_HOUR * 60) + i * SlotClock.SLOT_MINUTES;
+            if (minute >= from.toSecondOfDay() / 60 && minute < to.toSecondOfDay() / 60) {
+                mask |= 1L << i;
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,116 @@
+package fr.polytech.schedule.components;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+
+/**
+ * Operating calendars of the warehouses, read from the
+ * <code>schedule-calendars.properties</code> resource, the rules of a warehouse
+ * being prefixed by its name (<code>nice.weekly.SUNDAY=closed</code>). A
+ * warehouse without rules is open on the whole planning grid.
+ * <p>
+ * The warehouse of this schedule is given by the
+ * <code>schedule.warehouse</code> property. The calendars are parsed when the
+ * bean starts, an invalid rule failing the deployment.
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class OperatingCalendars {
+
+    private static final Logger log = Logger.getLogger(OperatingCalendars.class.getName());
+
+    public static final String RESOURCE = "/schedule-calendars.properties";
+    public static final String WAREHOUSE = System.getProperty("schedule.warehouse", "default");
+
+    private final ConcurrentMap<String, OperatingCalendar> calendars = new ConcurrentHashMap<>();
+    private final Properties rules = new Properties();
+
+    @PostConstruct
+    public void load() {
+        Properties resource = new Properties();
+        try (InputStream in = OperatingCalendars.class.getResourceAsStream(RESOURCE)) {
+            if (in != null) {
+                resource.load(in);
+            }
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Operating calendars cannot be read, warehouses are always open", e);
+        }
+        load(resource);
+    }
+
+    /**
+     * Parse the calendar of each warehouse having rules
+     *
+     * @param properties rules of the warehouses
+     * @throws IllegalStateException if a rule cannot be read
+     */
+    void load(Properties properties) {
+        rules.putAll(properties);
+        for (String name : rules.stringPropertyNames()) {
+            String warehouse = warehouseOf(name);
+            if (warehouse == null) {
+                throw new IllegalStateException("Unknown calendar rule [" + name + "] in " + RESOURCE);
+            }
+            if (!calendars.containsKey(warehouse)) {
+                try {
+                    calendars.put(warehouse, OperatingCalendar.parse(rules, warehouse + "."));
+                } catch (RuntimeException e) {
+                    throw new IllegalStateException(
+                            "Invalid calendar of warehouse [" + warehouse + "] in " + RESOURCE + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the warehouse of a rule, null if it is not a rule
+     */
+    private static String warehouseOf(String name) {
+        for (String rule : new String[] { ".weekly.", ".date.", ".blackout." }) {
+            int index = name.indexOf(rule);
+            if (index > 0) {
+                return name.substring(0, index);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param warehouse
+     * @return the calendar of the warehouse
+     */
+    public OperatingCalendar of(String warehouse) {
+        return calendars.computeIfAbsent(warehouse, name -> OperatingCalendar.parse(rules, name + "."));
+    }
+
+    /**
+     * @return the calendar of the warehouse of this schedule
+     */
+    public OperatingCalendar current() {
+        return of(WAREHOUSE);
+    }
+
+    /**
+     * Replace the calendar of a warehouse
+     *
+     * @param warehouse
+     * @param calendar
+     */
+    public void set(String warehouse, OperatingCalendar calendar) {
+        calendars.put(warehouse, calendar);
+    }
+}
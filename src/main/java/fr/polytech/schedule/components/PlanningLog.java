@@ -0,0 +1,369 @@
+package fr.polytech.schedule.components;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.polytech.entities.TimeState;
+
+/**
+ * Append-only log of the occupancies written by this node, so that they can be
+ * restored without reading the timeslots of the drones, at startup or once
+ * evicted from the cache.
+ * <p>
+ * Events are appended to <code>planning.log</code>, memory-mapped on
+ * <code>schedule.log.size</code> bytes: the occupancy of a drone when it is
+ * rebuilt, then the slots committed for it. Once the log is full, or holds
+ * <code>schedule.log.compaction</code> events, the state of the drones is
+ * written to <code>planning.snapshot</code> and the log starts over. Opening
+ * the log reads the snapshot then replays the log.
+ * <p>
+ * The log starts with the generation of the snapshot it follows, incremented
+ * by each compaction: a log older than the snapshot, left by a crash while
+ * compacting, is already in the snapshot and is not replayed.
+ * <p>
+ * The database stays the reference, the log only knows what this node has
+ * written: restored occupancies are rebuilt from the drones once older than
+ * the cache TTL.
+ */
+public final class PlanningLog implements Closeable {
+
+    private static final Logger log = Logger.getLogger(PlanningLog.class.getName());
+
+    private static final int SIZE = Integer.getInteger("schedule.log.size", 16 << 20);
+    private static final int COMPACTION = Integer.getInteger("schedule.log.compaction", 100_000);
+
+    private static final byte END = 0;
+    private static final byte DRONE = 1;
+    private static final byte SLOT = 2;
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int HEADER = Long.BYTES;
+    private static final TimeState[] STATES = TimeState.values();
+
+    private final Path snapshot;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private long generation;
+    private int events;
+
+    /**
+     * A slot committed for a drone, or the occupancy of a drone rebuilt
+     */
+    public static final class Event {
+        private final String droneId;
+        private final long key;
+        private final TimeState state;
+        private final boolean created;
+        private final Entry rebuilt;
+
+        /**
+         * @param droneId
+         * @param key
+         * @param state
+         * @param created true if the slot is a new timeslot of the drone
+         */
+        public Event(String droneId, long key, TimeState state, boolean created) {
+            this.droneId = droneId;
+            this.key = key;
+            this.state = state;
+            this.created = created;
+            this.rebuilt = null;
+        }
+
+        private Event(String droneId, Entry rebuilt) {
+            this.droneId = droneId;
+            this.key = 0;
+            this.state = null;
+            this.created = false;
+            this.rebuilt = rebuilt;
+        }
+
+        /**
+         * @param occupancy rebuilt from the timeslots of its drone
+         * @return the occupancy as it is now
+         */
+        public static Event rebuilt(DroneOccupancy occupancy) {
+            synchronized (occupancy) {
+                Entry entry = new Entry(String.valueOf(occupancy.getIdentity()), occupancy.getFlightTime(),
+                        occupancy.getIndexedSlots());
+                entry.slots.putAll(occupancy.recorded());
+                return new Event(occupancy.getDroneId(), entry);
+            }
+        }
+
+        public String getDroneId() {
+            return droneId;
+        }
+
+        /**
+         * @return true if the event is a rebuilt occupancy
+         */
+        public boolean isRebuilt() {
+            return rebuilt != null;
+        }
+    }
+
+    private static final class Entry {
+        private final String identity;
+        private final int flightTime;
+        private int indexedSlots;
+        private final Map<Long, TimeState> slots = new HashMap<>();
+
+        private Entry(String identity, int flightTime, int indexedSlots) {
+            this.identity = identity;
+            this.flightTime = flightTime;
+            this.indexedSlots = indexedSlots;
+        }
+    }
+
+    private PlanningLog(Path snapshot, FileChannel channel, MappedByteBuffer buffer) {
+        this.snapshot = snapshot;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Open the log of the directory, restoring the snapshot and the events
+     * appended since
+     *
+     * @param directory
+     * @return the log
+     * @throws IOException
+     */
+    public static PlanningLog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        FileChannel channel = FileChannel.open(directory.resolve("planning.log"), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        PlanningLog planningLog = new PlanningLog(directory.resolve("planning.snapshot"), channel,
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        planningLog.readSnapshot();
+        planningLog.replay();
+        return planningLog;
+    }
+
+    /**
+     * Restore an occupancy never built from the state logged for its drone
+     *
+     * @param occupancy
+     * @param identity   persistent identifier of the drone
+     * @param flightTime of the drone
+     * @param timeSlots  number of timeslots of the drone
+     * @return false if the log does not know the drone as it is
+     */
+    public synchronized boolean restore(DroneOccupancy occupancy, String identity, int flightTime, int timeSlots) {
+        Entry entry = entries.get(occupancy.getDroneId());
+        if (entry == null || !entry.identity.equals(identity) || entry.flightTime != flightTime
+                || entry.indexedSlots < timeSlots) {
+            return false;
+        }
+        occupancy.restore(entry.slots, entry.indexedSlots, flightTime, identity);
+        return true;
+    }
+
+    /**
+     * Log the events committed by a transaction
+     *
+     * @param committed
+     */
+    public synchronized void recorded(List<Event> committed) {
+        for (Event event : committed) {
+            if (event.rebuilt != null) {
+                rebuilt(event.droneId, event.rebuilt);
+            } else {
+                append(slot(event.droneId, event.key, event.state, event.created));
+                apply(event.droneId, event.key, event.state, event.created);
+            }
+        }
+    }
+
+    private void rebuilt(String droneId, Entry rebuilt) {
+        byte[] id = droneId.getBytes(StandardCharsets.UTF_8);
+        byte[] identity = rebuilt.identity.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer event = ByteBuffer.allocate(1 + 2 + id.length + 2 + identity.length + 4 + 4);
+        event.put(DRONE).putShort((short) id.length).put(id).putShort((short) identity.length).put(identity)
+                .putInt(rebuilt.flightTime).putInt(rebuilt.indexedSlots);
+        append(event);
+        Entry entry = new Entry(rebuilt.identity, rebuilt.flightTime, rebuilt.indexedSlots);
+        entries.put(droneId, entry);
+        rebuilt.slots.forEach((key, state) -> {
+            append(slot(droneId, key, state, false));
+            entry.slots.put(key, state);
+        });
+    }
+
+    /**
+     * Write the snapshot and start the log over
+     *
+     * @throws IOException
+     */
+    public synchronized void compact() throws IOException {
+        long today = SlotClock.today();
+        long next = generation + 1;
+        Path written = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(written, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(file)))) {
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(next);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> drone : entries.entrySet()) {
+                Entry entry = drone.getValue();
+                // Past days are not indexed
+                entry.slots.keySet().removeIf(key -> SlotClock.day(key) < today);
+                out.writeUTF(drone.getKey());
+                out.writeUTF(entry.identity);
+                out.writeInt(entry.flightTime);
+                out.writeInt(entry.indexedSlots);
+                out.writeInt(entry.slots.size());
+                for (Map.Entry<Long, TimeState> slot : entry.slots.entrySet()) {
+                    out.writeLong(slot.getKey());
+                    out.writeByte(slot.getValue().ordinal());
+                }
+            }
+            out.flush();
+            file.force(true);
+        }
+        Files.move(written, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Until the log is reset, it is older than the snapshot and skipped
+        generation = next;
+        reset();
+    }
+
+    private void reset() {
+        buffer.putLong(0, generation);
+        buffer.put(HEADER, END);
+        buffer.position(HEADER);
+        buffer.force();
+        events = 0;
+    }
+
+    /**
+     * Compact the log, so that the next start only reads the snapshot
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            compact();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static ByteBuffer slot(String droneId, long key, TimeState state, boolean created) {
+        byte[] id = droneId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer event = ByteBuffer.allocate(1 + 2 + id.length + 8 + 1 + 1);
+        return event.put(SLOT).putShort((short) id.length).put(id).putLong(key).put((byte) state.ordinal())
+                .put((byte) (created ? 1 : 0));
+    }
+
+    private void append(ByteBuffer event) {
+        event.flip();
+        if (buffer.remaining() <= event.remaining() || events >= COMPACTION) {
+            try {
+                compact();
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Planning log cannot be compacted, an event is lost", e);
+                return;
+            }
+        }
+        if (buffer.remaining() <= event.remaining()) {
+            log.warning("Planning log event larger than the log, schedule.log.size is too small");
+            return;
+        }
+        buffer.put(event);
+        // The end is marked after each event, it is overwritten by the next one
+        buffer.put(buffer.position(), END);
+        events++;
+    }
+
+    private void apply(String droneId, long key, TimeState state, boolean created) {
+        Entry entry = entries.get(droneId);
+        if (entry != null) {
+            entry.slots.put(key, state);
+            if (created) {
+                entry.indexedSlots++;
+            }
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        if (!Files.exists(snapshot)) {
+            return;
+        }
+        try (InputStream file = Files.newInputStream(snapshot);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(file))) {
+            if (in.readInt() != SNAPSHOT_VERSION) {
+                log.warning("Planning snapshot of another version ignored");
+                return;
+            }
+            generation = in.readLong();
+            for (int drones = in.readInt(); drones > 0; drones--) {
+                String droneId = in.readUTF();
+                Entry entry = new Entry(in.readUTF(), in.readInt(), in.readInt());
+                for (int slots = in.readInt(); slots > 0; slots--) {
+                    entry.slots.put(in.readLong(), STATES[in.readByte()]);
+                }
+                entries.put(droneId, entry);
+            }
+        }
+    }
+
+    private void replay() {
+        long logged = buffer.getLong(0);
+        if (logged != generation) {
+            if (logged > generation) {
+                log.warning("Planning log of another snapshot ignored");
+            }
+            reset();
+            return;
+        }
+        buffer.position(HEADER);
+        try {
+            for (byte type = buffer.get(); type != END; type = buffer.get()) {
+                String droneId = string();
+                if (type == DRONE) {
+                    entries.put(droneId, new Entry(string(), buffer.getInt(), buffer.getInt()));
+                } else if (type == SLOT) {
+                    apply(droneId, buffer.getLong(), STATES[buffer.get()], buffer.get() != 0);
+                } else {
+                    throw new IllegalStateException("Unknown event " + type);
+                }
+                events++;
+            }
+            buffer.position(buffer.position() - 1);
+        } catch (RuntimeException e) {
+            // A torn event ends the log, what has been read is kept in the snapshot
+            log.log(Level.WARNING, "Planning log truncated after " + events + " events", e);
+            try {
+                compact();
+            } catch (IOException io) {
+                log.log(Level.WARNING, "Planning log cannot be compacted", io);
+            }
+        }
+    }
+
+    private String string() {
+        byte[] bytes = new byte[buffer.getShort()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,87 @@
+package fr.polytech.schedule.components;
+
+import java.util.GregorianCalendar;
+
+import fr.polytech.schedule.exception.DeliveryAlreadyScheduledException;
+import fr.polytech.schedule.exception.NoFreeDroneAtThisTimeSlotException;
+import fr.polytech.schedule.exception.OutsideOfDeliveryHoursException;
+import fr.polytech.schedule.exception.ShardNotOwnedException;
+import fr.polytech.schedule.exception.TimeslotUnvailableException;
+import fr.polytech.schedule.exception.ZeroDronesInWarehouseException;
+
+/**
+ * Reason a delivery could not be scheduled, each one matching the exception
+ * the throwing API raises for it
+ */
+public enum Rejection {
+
+    NO_DRONE_IN_WAREHOUSE(ZeroDronesInWarehouseException.class),
+    NO_FREE_DRONE(NoFreeDroneAtThisTimeSlotException.class),
+    OUTSIDE_OF_DELIVERY_HOURS(OutsideOfDeliveryHoursException.class),
+    TIMESLOT_UNAVAILABLE(TimeslotUnvailableException.class),
+    ALREADY_SCHEDULED(DeliveryAlreadyScheduledException.class),
+    SHARD_NOT_OWNED(ShardNotOwnedException.class);
+
+    private final Class<? extends Exception> exception;
+
+    Rejection(Class<? extends Exception> exception) {
+        this.exception = exception;
+    }
+
+    public Class<? extends Exception> getException() {
+        return exception;
+    }
+
+    /**
+     * @param result rejected for this reason
+     * @return the exception describing the rejection
+     */
+    Exception toException(ScheduleResult result) {
+        GregorianCalendar date = result.getDate();
+        switch (this) {
+        case NO_DRONE_IN_WAREHOUSE:
+            return new ZeroDronesInWarehouseException();
+        case NO_FREE_DRONE:
+            return new NoFreeDroneAtThisTimeSlotException(
+                    date.get(GregorianCalendar.HOUR_OF_DAY) + ":" + date.get(GregorianCalendar.MINUTE));
+        case OUTSIDE_OF_DELIVERY_HOURS:
+            // Hours of the warehouse on the day of the date, "9-17"
+            String[] hours = result.getDetail().split("-");
+            if (hours.length != 2) {
+                return new OutsideOfDeliveryHoursException(ScheduleBean.STARTING_HOUR, ScheduleBean.CLOSING_HOUR);
+            }
+            return new OutsideOfDeliveryHoursException(Integer.parseInt(hours[0]), Integer.parseInt(hours[1]));
+        case TIMESLOT_UNAVAILABLE:
+            return new TimeslotUnvailableException(
+                    date.get(GregorianCalendar.HOUR) + ":" + date.get(GregorianCalendar.MINUTE), result.getDetail());
+        case SHARD_NOT_OWNED:
+            return new ShardNotOwnedException(ScheduleShard.route(result.getDelivery()));
+        default:
+            return new DeliveryAlreadyScheduledException(result.getDelivery());
+        }
+    }
+
+    /**
+     * Throw the exception of a rejected result
+     *
+     * @param result rejected for this reason
+     */
+    void raise(ScheduleResult result) throws ZeroDronesInWarehouseException, NoFreeDroneAtThisTimeSlotException,
+            OutsideOfDeliveryHoursException, TimeslotUnvailableException, DeliveryAlreadyScheduledException {
+        Exception e = result.getError();
+        switch (this) {
+        case NO_DRONE_IN_WAREHOUSE:
+            throw (ZeroDronesInWarehouseException) e;
+        case NO_FREE_DRONE:
+            throw (NoFreeDroneAtThisTimeSlotException) e;
+        case OUTSIDE_OF_DELIVERY_HOURS:
+            throw (OutsideOfDeliveryHoursException) e;
+        case TIMESLOT_UNAVAILABLE:
+            throw (TimeslotUnvailableException) e;
+        case SHARD_NOT_OWNED:
+            throw (ShardNotOwnedException) e;
+        default:
+            throw (DeliveryAlreadyScheduledException) e;
+        }
+    }
+}
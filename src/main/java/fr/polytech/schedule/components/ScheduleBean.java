@@ -3,23 +3,40 @@ package fr.polytech.schedule.components;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import javax.annotation.Resource;
+import javax.ejb.EJB;
 import javax.ejb.LocalBean;
 import javax.ejb.Stateless;
+import javax.enterprise.concurrent.ManagedExecutorService;
 import javax.inject.Named;
+import javax.interceptor.Interceptors;
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Join;
+import javax.persistence.criteria.JoinType;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
 import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
 
 import fr.polytech.entities.Delivery;
 import fr.polytech.entities.Drone;
@@ -35,62 +52,520 @@ import fr.polytech.schedule.exception.ZeroDronesInWarehouseException;
 @Stateless
 @LocalBean
 @Named("schedule")
+@Interceptors(MetricsInterceptor.class)
 public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
 
     private static final Logger log = Logger.getLogger(ScheduleBean.class.getName());
 
-    public static final int STARTING_HOUR = 8;
-    public static final int CLOSING_HOUR = 18;
-    public static final int NUMBER_OF_SLOT_PER_DAYS = 40; // end of days 18h
+    public static final int STARTING_HOUR = SlotClock.OPENING_HOUR;
+    public static final int CLOSING_HOUR = SlotClock.CLOSING_HOUR;
+    public static final int NUMBER_OF_SLOT_PER_DAYS = SlotClock.PLANNED_SLOTS; // 40 by default, end of days 18h
+
+    private static final int CANDIDATES_PAGE = 8;
+    private static final int SEARCHED_DAYS = 7;
+    private static final int PARALLEL_SCAN = Integer.getInteger("schedule.scan.parallel", 2048);
+    private static final int SCAN_CHUNK = 512;
 
     @PersistenceContext
     private EntityManager entityManager;
 
+    @EJB
+    private OccupancyIndex occupancyIndex;
+
+    @EJB
+    private ScheduleMetrics metrics;
+
+    @EJB
+    private OperatingCalendars calendars;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    private AssignmentStrategy assignment = Assignment.configured();
+
+    // Fleets from this size on are scanned in parallel
+    private int parallelScan = PARALLEL_SCAN;
+
     @Override
     public Delivery getNextDelivery(GregorianCalendar date) throws ZeroDronesInWarehouseException {
-        List<TimeSlot> timeslots = new ArrayList<>();
-
-        List<Drone> drones = getAllDrones();
+        if (occupancyIndex.isPacked()) {
+            return getNextPackedDelivery(date);
+        }
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<TimeSlot> criteria = builder.createQuery(TimeSlot.class);
+        Root<Drone> root = criteria.from(Drone.class);
+        Join<Drone, TimeSlot> slot = root.join("timeSlots");
+        criteria.select(slot)
+                .where(builder.equal(slot.get("state"), TimeState.DELIVERY),
+                        builder.greaterThan(slot.<GregorianCalendar>get("date"), date))
+                .orderBy(builder.asc(slot.get("date")));
 
-        for (Drone drone : drones) {
-            timeslots.addAll(drone.getTimeSlots());
+        // Only the closest delivery slot is read, with an index on the timeslot
+        // (state, date) columns it stays cheap whatever the size of the history
+        List<TimeSlot> next = entityManager.createQuery(criteria).setMaxResults(1).getResultList();
+        if (!next.isEmpty()) {
+            return next.get(0).getDelivery();
+        }
+        if (countDrones() == 0) {
+            throw new ZeroDronesInWarehouseException();
         }
+        return null;
+    }
 
-        for (Drone drone : drones) {
-            entityManager.detach(drone);
+    /**
+     * Next delivery read from the daily plans, day after day
+     */
+    private Delivery getNextPackedDelivery(GregorianCalendar date) throws ZeroDronesInWarehouseException {
+        long key = SlotClock.keyOf(date);
+        if (SlotClock.toMillis(key) <= date.getTimeInMillis()) {
+            // Only the slots starting after the date
+            key++;
         }
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<DailyPlan> criteria = builder.createQuery(DailyPlan.class);
+        Root<DailyPlan> root = criteria.from(DailyPlan.class);
+        criteria.select(root)
+                .where(builder.greaterThanOrEqualTo(root.<Long>get("epochDay"), SlotClock.day(key)),
+                        builder.notEqual(root.get("deliveries"), ""))
+                .orderBy(builder.asc(root.get("epochDay")), builder.asc(root.get("droneId")));
+        TypedQuery<DailyPlan> query = entityManager.createQuery(criteria);
 
-        List<Delivery> deliveries = timeslots.stream().filter(timeSlot -> timeSlot.getState() == TimeState.DELIVERY)
-                .filter(timeSlot -> timeSlot.getDate().after(date)).map(TimeSlot::getDelivery)
-                .collect(Collectors.toList());
+        // The plans are read by pages until a day having a delivery after the date
+        DailyPlan next = null;
+        int nextSlot = -1;
+        List<DailyPlan> plans;
+        int first = 0;
+        do {
+            plans = query.setFirstResult(first).setMaxResults(CANDIDATES_PAGE).getResultList();
+            for (DailyPlan plan : plans) {
+                if (next != null && plan.getEpochDay() > next.getEpochDay()) {
+                    return findDelivery(next.deliveryAt(nextSlot));
+                }
+                int slot = plan.firstDelivery(plan.getEpochDay() == SlotClock.day(key) ? SlotClock.slot(key) : 0);
+                if (slot >= 0 && (next == null || slot < nextSlot)) {
+                    next = plan;
+                    nextSlot = slot;
+                }
+            }
+            first += CANDIDATES_PAGE;
+        } while (plans.size() == CANDIDATES_PAGE);
 
-        if (!deliveries.isEmpty()) {
-            return deliveries.get(0);
+        if (next != null) {
+            return findDelivery(next.deliveryAt(nextSlot));
+        }
+        if (countDrones() == 0) {
+            throw new ZeroDronesInWarehouseException();
         }
         return null;
     }
 
+    private Delivery findDelivery(String deliveryId) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Delivery> criteria = builder.createQuery(Delivery.class);
+        Root<Delivery> root = criteria.from(Delivery.class);
+        criteria.select(root).where(builder.equal(root.get("deliveryId"), deliveryId));
+        List<Delivery> delivery = entityManager.createQuery(criteria).getResultList();
+        return delivery.isEmpty() ? null : delivery.get(0);
+    }
+
     public Drone getFreeDrone(GregorianCalendar date)
             throws ZeroDronesInWarehouseException, NoFreeDroneAtThisTimeSlotException {
-        for (Drone d : getAllDrones()) {
-            if (dateIsAvailable(date, d) == TimeState.AVAILABLE) {
-                return d;
-            }
+        Optional<Drone> drone = findFreeDrone(date);
+        if (drone.isPresent()) {
+            return drone.get();
         }
         String time = date.get(GregorianCalendar.HOUR_OF_DAY) + ":" + date.get(GregorianCalendar.MINUTE);
         throw new NoFreeDroneAtThisTimeSlotException(time);
     }
 
-    private List<Drone> getAllDrones() throws ZeroDronesInWarehouseException {
+    @Override
+    public Optional<Drone> findFreeDrone(GregorianCalendar date) throws ZeroDronesInWarehouseException {
+        Drone drone = findFreeDrone(SlotClock.keyOf(date), ScheduleShard.owned());
+        if (drone != null) {
+            return Optional.of(drone);
+        }
+        if (countDrones() == 0) {
+            throw new ZeroDronesInWarehouseException();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @param key    slot
+     * @param shards searched
+     * @return the free drone of the shards chosen by the strategy, null if
+     *         there is none
+     */
+    private Drone findFreeDrone(long key, int... shards) {
+        GregorianCalendar slotStart = SlotClock.toCalendar(key);
+        GregorianCalendar slotEnd = SlotClock.toCalendar(key + 1);
+
         CriteriaBuilder builder = entityManager.getCriteriaBuilder();
         CriteriaQuery<Drone> criteria = builder.createQuery(Drone.class);
         Root<Drone> root = criteria.from(Drone.class);
-        criteria.select(root);
 
+        // Drones having something planned on the slot
+        Subquery<TimeSlot> planned = criteria.subquery(TimeSlot.class);
+        Root<Drone> plannedDrone = planned.correlate(root);
+        Join<Drone, TimeSlot> plannedSlot = plannedDrone.join("timeSlots");
+        planned.select(plannedSlot).where(
+                builder.greaterThanOrEqualTo(plannedSlot.<GregorianCalendar>get("date"), slotStart),
+                builder.lessThan(plannedSlot.<GregorianCalendar>get("date"), slotEnd),
+                builder.notEqual(plannedSlot.get("state"), TimeState.AVAILABLE));
+
+        // Drones whose charge and review reservations leave the slot free
+        Predicate notReserved = builder.conjunction();
+        int index = SlotClock.slot(key);
+        if (index >= 0 && index < NUMBER_OF_SLOT_PER_DAYS) {
+            if (DailyPlanRule.reservations(0)[index] == TimeState.AVAILABLE) {
+                List<Integer> reserved = flightTimes(index, false);
+                if (!reserved.isEmpty()) {
+                    notReserved = builder.not(root.get("flightTime").in(reserved));
+                }
+            } else {
+                List<Integer> free = flightTimes(index, true);
+                notReserved = free.isEmpty() ? builder.disjunction() : root.get("flightTime").in(free);
+            }
+        }
+
+        criteria.select(root)
+                .where(builder.not(builder.exists(planned)), notReserved,
+                        inShards(builder, root.get("droneId"), shards))
+                .orderBy(builder.asc(root.get("droneId")));
+
+        // The index has the last word
         TypedQuery<Drone> query = entityManager.createQuery(criteria);
+        Choice choice = new Choice(key);
+        if (assignment.isFirstFit()) {
+            // The first free candidate is taken, candidates are read by small pages
+            List<Drone> candidates;
+            int first = 0;
+            do {
+                candidates = query.setFirstResult(first).setMaxResults(CANDIDATES_PAGE).getResultList();
+                if (choice.offer(candidates)) {
+                    break;
+                }
+                first += CANDIDATES_PAGE;
+            } while (candidates.size() == CANDIDATES_PAGE);
+        } else {
+            // Every candidate is costed, they are read at once
+            choice.offer(query.getResultList());
+        }
+        return choice.drone;
+    }
+
+    @Override
+    public List<SlotOption> findEarliestSlots(GregorianCalendar from, int count) throws ZeroDronesInWarehouseException {
+        if (count < 0) {
+            throw new IllegalArgumentException("Negative number of options: " + count);
+        }
+        List<SlotOption> options = new ArrayList<>(count);
+
+        long millis = Math.max(from.getTimeInMillis(), System.currentTimeMillis());
+        long key = SlotClock.keyOf(millis);
+        if (SlotClock.toMillis(key) < millis) {
+            // A slot already begun is not offered
+            key++;
+        }
+        long day = SlotClock.day(key);
+        int slot = Math.max(0, SlotClock.slot(key));
+
+        OperatingCalendar calendar = calendars.current();
+        int[] owned = ScheduleShard.owned();
+        // The fleet is only read for the days not counted yet
+        List<List<Drone>> shards = null;
+        SlotAvailability[] availabilities = new SlotAvailability[owned.length];
+        for (long last = day + SEARCHED_DAYS; day < last && options.size() < count; day++, slot = 0) {
+            long open = calendar.openSlots(day);
+            if (open == 0) {
+                continue;
+            }
+            for (int i = 0; i < owned.length; i++) {
+                availabilities[i] = occupancyIndex.availability(owned[i], day);
+                if (availabilities[i] == null) {
+                    if (shards == null) {
+                        shards = byShard(getDrones());
+                    }
+                    List<Drone> drones = shards.get(ScheduleShard.COUNT == 1 ? 0 : owned[i]);
+                    availabilities[i] = drones.isEmpty() ? null : occupancyIndex.count(owned[i], day, drones);
+                }
+            }
+            for (int i = firstFree(availabilities, slot); i >= 0 && options.size() < count; i = firstFree(
+                    availabilities, i + 1)) {
+                if ((open & 1L << i) == 0) {
+                    continue;
+                }
+                long slotKey = SlotClock.key(day, i);
+                String droneId = null;
+                long cost = Long.MAX_VALUE;
+                int freeDrones = 0;
+                for (SlotAvailability availability : availabilities) {
+                    if (availability == null || availability.count(i) == 0) {
+                        continue;
+                    }
+                    freeDrones += availability.count(i);
+                    if (assignment.isFirstFit()) {
+                        // The counts follow the occupancies, the first free drone is not checked again
+                        if (droneId == null) {
+                            droneId = availability.firstFreeDrone(i);
+                        }
+                        continue;
+                    }
+                    for (String candidate : availability.freeDrones(i)) {
+                        // Evicted drones are costed last, their occupancy is not read for a search
+                        DroneOccupancy occupancy = occupancyIndex.cached(candidate);
+                        if (occupancy != null && !occupancy.isFree(slotKey)) {
+                            continue;
+                        }
+                        long candidateCost = occupancy == null ? Long.MAX_VALUE - 1 : assignment.cost(occupancy, slotKey);
+                        if (droneId == null || candidateCost < cost) {
+                            droneId = candidate;
+                            cost = candidateCost;
+                        }
+                    }
+                }
+                if (droneId != null) {
+                    options.add(new SlotOption(SlotClock.toCalendar(slotKey), droneId, freeDrones));
+                }
+            }
+        }
+        if (options.isEmpty() && countDrones() == 0) {
+            throw new ZeroDronesInWarehouseException();
+        }
+        return options;
+    }
+
+    /**
+     * @return the first slot from the given one having a free drone in one of
+     *         the shards, -1 if there is none
+     */
+    private static int firstFree(SlotAvailability[] availabilities, int from) {
+        int first = -1;
+        for (SlotAvailability availability : availabilities) {
+            int free = availability == null ? -1 : availability.firstFree(from);
+            if (free >= 0 && (first < 0 || free < first)) {
+                first = free;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Best free drone on a slot according to the assignment strategy, drones
+     * must be offered by id. The costs of large lists of drones are computed
+     * in parallel by the managed executor, the choice being the same as the
+     * sequential one; first fit stays sequential, it stops at the first free
+     * drone.
+     */
+    private final class Choice {
+        private final long key;
+        private Drone drone;
+        private long cost = Long.MAX_VALUE;
+
+        private Choice(long key) {
+            this.key = key;
+        }
+
+        /**
+         * @return true if the choice is made, no other drone needs to be offered
+         */
+        private boolean offer(List<Drone> drones) {
+            return executor != null && !assignment.isFirstFit() && drones.size() >= parallelScan ? offerInParallel(drones)
+                    : offerInOrder(drones);
+        }
+
+        private boolean offerInOrder(List<Drone> drones) {
+            for (Drone candidate : drones) {
+                if (occupancyIndex.isFree(candidate, key)) {
+                    if (assignment.isFirstFit()) {
+                        drone = candidate;
+                        return true;
+                    }
+                    long candidateCost = assignment.cost(occupancyIndex.of(candidate), key);
+                    if (candidateCost < cost) {
+                        drone = candidate;
+                        cost = candidateCost;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean offerInParallel(List<Drone> drones) {
+            long day = SlotClock.day(key);
+            DroneOccupancy[] occupancies = new DroneOccupancy[drones.size()];
+            for (int i = 0; i < occupancies.length; i++) {
+                // Entities are only read by this thread, the workers see the occupancies
+                occupancies[i] = occupancyIndex.of(drones.get(i));
+                if (!occupancies[i].covers(day)) {
+                    // Beyond the horizon the timeslots of the drones are read
+                    return offerInOrder(drones);
+                }
+            }
+            int best = cheapest(occupancies, key, assignment, executor);
+            if (best >= 0) {
+                long bestCost = assignment.cost(occupancies[best], key);
+                if (bestCost < cost) {
+                    drone = drones.get(best);
+                    cost = bestCost;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * @param occupancies of drones ordered by id
+     * @param key         slot
+     * @param assignment  strategy giving the costs
+     * @param executor    scanning the parts of the occupancies, null to scan
+     *                    them in this thread
+     * @return index of the cheapest occupancy free on the slot, the first one
+     *         among the cheapest, -1 if none is free
+     */
+    static int cheapest(DroneOccupancy[] occupancies, long key, AssignmentStrategy assignment,
+            ExecutorService executor) {
+        return cheapest(occupancies, key, assignment, executor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads scanning the occupancies at most, this one included
+     */
+    static int cheapest(DroneOccupancy[] occupancies, long key, AssignmentStrategy assignment,
+            ExecutorService executor, int threads) {
+        int parts = executor == null ? 1 : Math.min(threads, occupancies.length / SCAN_CHUNK);
+        if (parts <= 1) {
+            return cheapest(occupancies, key, assignment, 0, occupancies.length);
+        }
+        int size = (occupancies.length + parts - 1) / parts;
+        List<Future<Integer>> scans = new ArrayList<>(parts - 1);
+        for (int from = size; from < occupancies.length; from += size) {
+            int first = from;
+            scans.add(executor.submit(() -> cheapest(occupancies, key, assignment, first, first + size)));
+        }
+        int best = cheapest(occupancies, key, assignment, 0, size);
+        long cost = best < 0 ? Long.MAX_VALUE : assignment.cost(occupancies[best], key);
+        for (int i = 0; i < scans.size(); i++) {
+            int from = (i + 1) * size;
+            // A part not started yet is scanned by this thread, a busy executor is not waited for
+            int found = scans.get(i).cancel(false) ? cheapest(occupancies, key, assignment, from, from + size)
+                    : scanned(scans.get(i));
+            if (found >= 0) {
+                long foundCost = assignment.cost(occupancies[found], key);
+                if (best < 0 || foundCost < cost) {
+                    best = found;
+                    cost = foundCost;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int cheapest(DroneOccupancy[] occupancies, long key, AssignmentStrategy assignment, int from,
+            int to) {
+        int best = -1;
+        long cost = Long.MAX_VALUE;
+        for (int i = from; i < Math.min(to, occupancies.length); i++) {
+            if (occupancies[i].isFree(key)) {
+                long candidateCost = assignment.cost(occupancies[i], key);
+                if (best < 0 || candidateCost < cost) {
+                    best = i;
+                    cost = candidateCost;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int scanned(Future<Integer> scan) {
         try {
-            List<Drone> drones = query.getResultList();
-            if (drones.isEmpty()) {
+            return scan.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning the drones", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Drone scan failed", e.getCause());
+        }
+    }
+
+    private static List<Integer> flightTimes(int index, boolean free) {
+        return IntStream.of(DailyPlanRule.flightTimes(index, free)).boxed().collect(Collectors.toList());
+    }
+
+    /**
+     * @param droneId path of the id of the drones
+     * @param shards
+     * @return the predicate of the drones of the shards
+     */
+    private static Predicate inShards(CriteriaBuilder builder, Path<String> droneId, int... shards) {
+        if (shards.length == ScheduleShard.COUNT) {
+            return builder.conjunction();
+        }
+        Predicate[] ranges = new Predicate[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            String lower = ScheduleShard.lowerBound(shards[i]);
+            String upper = ScheduleShard.upperBound(shards[i]);
+            ranges[i] = builder.and(lower == null ? builder.conjunction() : builder.greaterThanOrEqualTo(droneId, lower),
+                    upper == null ? builder.conjunction() : builder.lessThan(droneId, upper));
+        }
+        return builder.or(ranges);
+    }
+
+    /**
+     * @param drones ordered by id
+     * @return the drones of each shard, ordered by id, empty for the shards
+     *         scheduled by other nodes
+     */
+    private static List<List<Drone>> byShard(List<Drone> drones) {
+        if (ScheduleShard.COUNT == 1) {
+            return Collections.singletonList(drones);
+        }
+        List<List<Drone>> shards = new ArrayList<>(ScheduleShard.COUNT);
+        for (int shard = 0; shard < ScheduleShard.COUNT; shard++) {
+            shards.add(new ArrayList<>());
+        }
+        for (Drone drone : drones) {
+            int shard = ScheduleShard.of(drone.getDroneId());
+            if (ScheduleShard.isOwned(shard)) {
+                shards.get(shard).add(drone);
+            }
+        }
+        return shards;
+    }
+
+    /**
+     * Free drone on the slot in the shard, or in the next shards if the shard
+     * has none
+     */
+    private Drone choose(List<List<Drone>> shards, int shard, long key) {
+        for (int i = 0; i < shards.size(); i++) {
+            List<Drone> drones = shards.get((shard + i) % shards.size());
+            if (!drones.isEmpty()) {
+                Choice choice = new Choice(key);
+                choice.offer(drones);
+                if (choice.drone != null) {
+                    return choice.drone;
+                }
+            }
+        }
+        return null;
+    }
+
+    private long countDrones() {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Long> criteria = builder.createQuery(Long.class);
+        criteria.select(builder.count(criteria.from(Drone.class)));
+        return entityManager.createQuery(criteria).getSingleResult();
+    }
+
+    /**
+     * @return the drones of the shards of this node, ordered by id
+     * @throws ZeroDronesInWarehouseException if the warehouse has no drone
+     */
+    private List<Drone> getAllDrones() throws ZeroDronesInWarehouseException {
+        try {
+            List<Drone> drones = getDrones();
+            if (drones.isEmpty() && countDrones() == 0) {
                 throw new ZeroDronesInWarehouseException();
             }
             return drones;
@@ -99,65 +574,358 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
         }
     }
 
-    @Override
+    /**
+     * @return the drones of the shards of this node, ordered by id
+     */
+    private List<Drone> getDrones() {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Drone> criteria = builder.createQuery(Drone.class);
+        Root<Drone> root = criteria.from(Drone.class);
+        criteria.select(root).where(inShards(builder, root.get("droneId"), ScheduleShard.owned()))
+                .orderBy(builder.asc(root.get("droneId")));
+        return entityManager.createQuery(criteria).getResultList();
+    }
 
+    @Override
     public boolean scheduleDelivery(GregorianCalendar date, Delivery delivery) throws ZeroDronesInWarehouseException,
             NoFreeDroneAtThisTimeSlotException, OutsideOfDeliveryHoursException, TimeslotUnvailableException,
             DeliveryAlreadyScheduledException {
+        ScheduleResult result = attempt(date, delivery);
+        if (!result.isScheduled()) {
+            result.getReason().raise(result);
+        }
+        return true;
+    }
+
+    @Override
+    public ScheduleResult trySchedule(GregorianCalendar date, Delivery delivery) {
+        ScheduleResult result = attempt(date, delivery);
+        if (!result.isScheduled()) {
+            metrics.thrown(result.getReason());
+        }
+        return result;
+    }
+
+    private ScheduleResult attempt(GregorianCalendar date, Delivery delivery) {
+        long key = SlotClock.keyOf(date);
+        Rejection rejection = validate(key, delivery);
+        if (rejection != null) {
+            return rejected(delivery, date, key, rejection);
+        }
 
         delivery = entityManager.merge(delivery);
-        Drone drone = entityManager.merge(getFreeDrone(date));
+        long start = metrics.start();
+        // The delivery is booked in its own shard first, then in the next ones
+        int[] owned = ScheduleShard.owned();
+        int routed = Arrays.binarySearch(owned, ScheduleShard.route(delivery));
+        for (int i = 0; i < owned.length; i++) {
+            int shard = owned[(routed + i) % owned.length];
+            Drone free;
+            // Another transaction may be booking the same drone, the next free one is tried
+            while ((free = findFreeDrone(key, shard)) != null) {
+                Drone drone = entityManager.merge(free);
+                if (occupancyIndex.claim(drone, key) && isFresh(drone, key)) {
+                    metrics.record("scheduleDelivery.freeDrone", start);
+                    return book(key, date, delivery, drone);
+                }
+            }
+        }
+        if (countDrones() == 0) {
+            return ScheduleResult.rejected(delivery, date, Rejection.NO_DRONE_IN_WAREHOUSE);
+        }
+        return ScheduleResult.rejected(delivery, date, Rejection.NO_FREE_DRONE);
+    }
+
+    @Override
+    public List<ScheduleResult> scheduleDeliveries(List<ScheduleRequest> requests)
+            throws ZeroDronesInWarehouseException {
+        // The fleet is loaded once, the occupancy index is then the shared view
+        List<List<Drone>> shards = byShard(getAllDrones());
+        List<ScheduleResult> results = new ArrayList<>(requests.size());
+
+        for (ScheduleRequest request : requests) {
+            GregorianCalendar date = request.getDate();
+            long key = SlotClock.keyOf(date);
+            Rejection rejection = validate(key, request.getDelivery());
+            if (rejection != null) {
+                metrics.thrown(rejection);
+                results.add(rejected(request.getDelivery(), date, key, rejection));
+                continue;
+            }
+            // Each delivery is booked in its own shard first
+            int shard = ScheduleShard.route(request.getDelivery());
+            Delivery delivery = entityManager.merge(request.getDelivery());
+            Drone drone;
+            do {
+                drone = choose(shards, shard, key);
+            } while (drone != null && !(occupancyIndex.claim(drone, key) && isFresh(drone, key)));
+            ScheduleResult result = drone != null ? book(key, date, delivery, drone)
+                    : ScheduleResult.rejected(delivery, date, Rejection.NO_FREE_DRONE);
+            if (!result.isScheduled()) {
+                metrics.thrown(result.getReason());
+            }
+            results.add(result);
+        }
 
-        // If not initialized
-        if (drone.getTimeSlots().isEmpty()) {
-            initDailyTimeSlots(drone);
+        // Every timeslot insert of the batch is sent in a single flush
+        entityManager.flush();
+        return results;
+    }
+
+    /**
+     * Fast rejection of the requests that cannot be scheduled, before any
+     * database access
+     *
+     * @return the reason of the rejection, null if the request is valid
+     */
+    private Rejection validate(long key, Delivery delivery) {
+        Rejection rejection = ScheduleValidator.check(calendars.current(), key, delivery);
+        if (rejection != null) {
+            metrics.rejected(rejection);
         }
+        return rejection;
+    }
+
+    /**
+     * @return the rejection, with the hours of the warehouse on the day if the
+     *         date is out of them
+     */
+    private ScheduleResult rejected(Delivery delivery, GregorianCalendar date, long key, Rejection rejection) {
+        if (rejection != Rejection.OUTSIDE_OF_DELIVERY_HOURS) {
+            return ScheduleResult.rejected(delivery, date, rejection);
+        }
+        OperatingCalendar calendar = calendars.current();
+        long day = SlotClock.day(key);
+        return ScheduleResult.rejected(delivery, date, rejection,
+                calendar.openingHour(day) + "-" + calendar.closingHour(day));
+    }
+
+    /**
+     * Assign the delivery to the drone at the date and update its planning, the
+     * slot of the drone must have been claimed
+     *
+     * @param key      slot of the date
+     * @param date
+     * @param delivery managed delivery
+     * @param drone    managed drone
+     * @return the outcome, rejected if the delivery or the slot changed since
+     *         the validation
+     */
+    private ScheduleResult book(long key, GregorianCalendar date, Delivery delivery, Drone drone) {
+        long day = SlotClock.day(key);
 
         if(delivery.getDrone() != null) {
-            throw new DeliveryAlreadyScheduledException(delivery);
+            return ScheduleResult.rejected(delivery, date, Rejection.ALREADY_SCHEDULED);
         }
 
-        if (date.get(GregorianCalendar.HOUR_OF_DAY) < STARTING_HOUR || date.get(GregorianCalendar.HOUR_OF_DAY) >= CLOSING_HOUR) {
-            throw new OutsideOfDeliveryHoursException(STARTING_HOUR, CLOSING_HOUR);
+        if (!calendars.current().isOpen(key)) {
+            return rejected(delivery, date, key, Rejection.OUTSIDE_OF_DELIVERY_HOURS);
         }
 
         // Stage 1 : Check that the asked timeslot is available
-        checkAvailability(date, drone);
+        TimeState state = occupancyIndex.stateAt(drone, key);
+        if (state != TimeState.AVAILABLE) {
+            return ScheduleResult.rejected(delivery, date, Rejection.TIMESLOT_UNAVAILABLE, state.toString());
+        }
 
         // Stage 2 : Set the timeslot
-        createDeliveryTimeSlot(date, delivery, drone);
+        long start = metrics.start();
+        addDeliveryTimeSlot(key, date, delivery, drone);
+        metrics.record("book.deliverySlot", start);
 
         // UPDATE THE PLANNING - - - - - - - - - - - - - - - - - - -
-        List<TimeState> timeStates = convertTimeSlotsToList(drone.getTimeSlots());
-
-        int index = getIndexFromDate(date);
-
-        for (int i = 0; i < timeStates.size(); i++) {
-            if (i == index) {
-                for (; i < timeStates.size() && timeStates.get(i) != TimeState.RESERVED_FOR_CHARGE
-                        && timeStates.get(i) != TimeState.CHARGING; i++)
-                    ;
-                for (; i < timeStates.size() && timeStates.get(i) == TimeState.RESERVED_FOR_CHARGE; i++) {
-                    TimeSlot ts = findTimeSlotAtDate(drone.getTimeSlots(), getDateFromIndex(i));
-                    ts.setState(TimeState.CHARGING);
-                }
-                break;
+        // Only the reserved slots of the charge block following the delivery change
+        start = metrics.start();
+        DroneOccupancy occupancy = occupancyIndex.of(drone);
+        for (long block = occupancyIndex.chargeBlock(drone, key); block != 0; block &= block - 1) {
+            long chargeKey = SlotClock.key(day, Long.numberOfTrailingZeros(block));
+            TimeSlot ts = !occupancyIndex.isPacked() && occupancy.isRecorded(chargeKey)
+                    ? findTimeSlotAtKey(drone.getTimeSlots(), chargeKey)
+                    : null;
+            if (ts == null) {
+                // Reservations are only stored once they are used
+                createTimeSlot(chargeKey, SlotClock.toCalendar(chargeKey), drone, TimeState.CHARGING);
+            } else {
+                ts.setState(TimeState.CHARGING);
+                occupancy.update(chargeKey, TimeState.CHARGING);
+                occupancyIndex.journal(drone, chargeKey, TimeState.CHARGING, false);
             }
         }
-        return true;
+        metrics.record("book.charges", start);
+        return ScheduleResult.scheduled(delivery, date, drone);
     }
 
     @Override
     public List<TimeState> getCurrentPlanning(String droneID)
             throws DroneNotFoundException, ZeroDronesInWarehouseException {
-        for (Drone drone : this.getAllDrones()) {
-            if (drone.getDroneId().equals(droneID)) {
-                return convertTimeSlotsToList(drone.getTimeSlots()).stream()
-                        .map(e -> e == null ? TimeState.AVAILABLE : e).collect(Collectors.toList());
+        Drone drone = findDrone(droneID);
+        return Arrays.asList(occupancyIndex.planning(drone, SlotClock.today()));
+    }
+
+    @Override
+    public List<TimeState> getCurrentPlanning(String droneID, GregorianCalendar date)
+            throws DroneNotFoundException, ZeroDronesInWarehouseException {
+        long day = SlotClock.day(SlotClock.keyOf(date));
+        if (day < SlotClock.today()) {
+            // Past days are not indexed, only the slots of the day are read
+            return getPlanning(droneID, date, date).get(0);
+        }
+        Drone drone = findDrone(droneID);
+        return Arrays.asList(occupancyIndex.planning(drone, day));
+    }
+
+    @Override
+    public List<List<TimeState>> getPlanning(String droneID, GregorianCalendar from, GregorianCalendar to)
+            throws DroneNotFoundException, ZeroDronesInWarehouseException {
+        long firstDay = SlotClock.day(SlotClock.keyOf(from));
+        long lastDay = SlotClock.day(SlotClock.keyOf(to));
+        int flightTime = flightTimeOf(droneID);
+
+        List<TimeState[]> days = new ArrayList<>();
+        for (long day = firstDay; day <= lastDay; day++) {
+            days.add(DailyPlanRule.reservations(flightTime).clone());
+        }
+
+        if (occupancyIndex.isPacked()) {
+            return getPackedPlanning(droneID, firstDay, days);
+        }
+
+        // Only the (date, state) of the slots of the window are read, not the drone
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        Root<Drone> root = criteria.from(Drone.class);
+        Join<Drone, TimeSlot> slot = root.join("timeSlots");
+        criteria.multiselect(slot.get("date"), slot.get("state")).where(
+                builder.equal(root.get("droneId"), droneID),
+                builder.greaterThanOrEqualTo(slot.<GregorianCalendar>get("date"),
+                        SlotClock.toCalendar(SlotClock.key(firstDay, 0))),
+                builder.lessThan(slot.<GregorianCalendar>get("date"), SlotClock.toCalendar(SlotClock.key(lastDay + 1, 0))));
+
+        for (Tuple tuple : entityManager.createQuery(criteria).getResultList()) {
+            long key = SlotClock.keyOf((Calendar) tuple.get(0));
+            int index = SlotClock.slot(key);
+            if (index >= 0 && index < NUMBER_OF_SLOT_PER_DAYS) {
+                days.get((int) (SlotClock.day(key) - firstDay))[index] = tuple.get(1, TimeState.class);
+            }
+        }
+        return days.stream().map(Arrays::asList).collect(Collectors.toList());
+    }
+
+    /**
+     * @param days reservations of each day of the range
+     */
+    private List<List<TimeState>> getPackedPlanning(String droneID, long firstDay, List<TimeState[]> days) {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<DailyPlan> criteria = builder.createQuery(DailyPlan.class);
+        Root<DailyPlan> root = criteria.from(DailyPlan.class);
+        criteria.select(root).where(builder.equal(root.get("droneId"), droneID),
+                builder.between(root.<Long>get("epochDay"), firstDay, firstDay + days.size() - 1));
+        for (DailyPlan plan : entityManager.createQuery(criteria).getResultList()) {
+            overlay(plan, days.get((int) (plan.getEpochDay() - firstDay)));
+        }
+        return days.stream().map(Arrays::asList).collect(Collectors.toList());
+    }
+
+    private static void overlay(DailyPlan plan, TimeState[] states) {
+        for (int i = 0; i < states.length; i++) {
+            TimeState state = plan.stateAt(i);
+            if (state != null) {
+                states[i] = state;
             }
         }
+    }
+
+    private int flightTimeOf(String droneID) throws DroneNotFoundException, ZeroDronesInWarehouseException {
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Integer> criteria = builder.createQuery(Integer.class);
+        Root<Drone> root = criteria.from(Drone.class);
+        criteria.select(root.<Integer>get("flightTime")).where(builder.equal(root.get("droneId"), droneID));
+        List<Integer> flightTime = entityManager.createQuery(criteria).getResultList();
+        if (!flightTime.isEmpty()) {
+            return flightTime.get(0);
+        }
+        if (countDrones() == 0) {
+            throw new ZeroDronesInWarehouseException();
+        }
         throw new DroneNotFoundException(droneID);
+    }
+
+    @Override
+    public FleetPlanning getFleetPlanning(GregorianCalendar date) throws ZeroDronesInWarehouseException {
+        long day = SlotClock.day(SlotClock.keyOf(date));
+        GregorianCalendar dayStart = SlotClock.toCalendar(SlotClock.key(day, 0));
+        GregorianCalendar dayEnd = SlotClock.toCalendar(SlotClock.key(day, NUMBER_OF_SLOT_PER_DAYS));
+
+        // Every drone with the timeslots of the day, if any, in a single query
+        CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+        CriteriaQuery<Tuple> criteria = builder.createTupleQuery();
+        Root<Drone> root = criteria.from(Drone.class);
+        Join<Drone, TimeSlot> slot = root.join("timeSlots", JoinType.LEFT);
+        slot.on(builder.greaterThanOrEqualTo(slot.<GregorianCalendar>get("date"), dayStart),
+                builder.lessThan(slot.<GregorianCalendar>get("date"), dayEnd));
+        criteria.multiselect(root.get("droneId"), root.get("flightTime"), slot.get("date"), slot.get("state"))
+                .orderBy(builder.asc(root.get("droneId")));
 
+        List<String> droneIds = new ArrayList<>();
+        byte[] states = new byte[0];
+        int row = -1;
+        String current = null;
+        for (Tuple tuple : entityManager.createQuery(criteria).getResultList()) {
+            String droneId = tuple.get(0, String.class);
+            if (!droneId.equals(current)) {
+                current = droneId;
+                droneIds.add(droneId);
+                row = (droneIds.size() - 1) * NUMBER_OF_SLOT_PER_DAYS;
+                if (states.length < row + NUMBER_OF_SLOT_PER_DAYS) {
+                    states = Arrays.copyOf(states, Math.max(row + NUMBER_OF_SLOT_PER_DAYS, states.length * 2));
+                }
+                TimeState[] reservations = DailyPlanRule.reservations(tuple.get(1, Integer.class));
+                for (int i = 0; i < NUMBER_OF_SLOT_PER_DAYS; i++) {
+                    states[row + i] = (byte) reservations[i].ordinal();
+                }
+            }
+            Calendar slotDate = (Calendar) tuple.get(2);
+            if (slotDate != null) {
+                int index = SlotClock.slot(SlotClock.keyOf(slotDate));
+                states[row + index] = (byte) tuple.get(3, TimeState.class).ordinal();
+            }
+        }
+
+        if (droneIds.isEmpty()) {
+            throw new ZeroDronesInWarehouseException();
+        }
+        if (occupancyIndex.isPacked()) {
+            // One row per drone having something recorded on the day
+            CriteriaQuery<DailyPlan> plans = builder.createQuery(DailyPlan.class);
+            Root<DailyPlan> plan = plans.from(DailyPlan.class);
+            plans.select(plan).where(builder.equal(plan.get("epochDay"), day));
+            Map<String, Integer> rows = new HashMap<>();
+            for (int i = 0; i < droneIds.size(); i++) {
+                rows.put(droneIds.get(i), i);
+            }
+            for (DailyPlan dailyPlan : entityManager.createQuery(plans).getResultList()) {
+                int index = rows.getOrDefault(dailyPlan.getDroneId(), -1);
+                for (int i = 0; index >= 0 && i < NUMBER_OF_SLOT_PER_DAYS; i++) {
+                    TimeState state = dailyPlan.stateAt(i);
+                    if (state != null) {
+                        states[index * NUMBER_OF_SLOT_PER_DAYS + i] = (byte) state.ordinal();
+                    }
+                }
+            }
+        }
+        return new FleetPlanning(day, droneIds.toArray(new String[0]),
+                Arrays.copyOf(states, droneIds.size() * NUMBER_OF_SLOT_PER_DAYS));
+    }
+
+    private Drone findDrone(String droneID) throws DroneNotFoundException, ZeroDronesInWarehouseException {
+        Optional<Drone> drone = findById(droneID);
+        if (drone.isPresent()) {
+            return drone.get();
+        }
+        if (countDrones() == 0) {
+            throw new ZeroDronesInWarehouseException();
+        }
+        throw new DroneNotFoundException(droneID);
     }
 
     /**
@@ -167,12 +935,7 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
      * @return boolean
      */
     public TimeState dateIsAvailable(GregorianCalendar date, Drone drone) {
-        for (TimeSlot ts : drone.getTimeSlots()) {
-            if (ts.getDate().get(Calendar.HOUR_OF_DAY) == date.get(Calendar.HOUR_OF_DAY)
-                    && ts.getDate().get(Calendar.MINUTE) == date.get(Calendar.MINUTE))
-                return ts.getState();
-        }
-        return TimeState.AVAILABLE;
+        return occupancyIndex.stateAt(drone, SlotClock.keyOf(date));
     }
 
     /**
@@ -183,12 +946,25 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
      */
     public void createDeliveryTimeSlot(GregorianCalendar date, Delivery delivery, Drone drone)
             throws TimeslotUnvailableException {
-        checkAvailability(date, drone);
+        long key = SlotClock.keyOf(date);
+        checkAvailability(key, date, drone);
+        addDeliveryTimeSlot(key, date, delivery, drone);
+    }
+
+    private void addDeliveryTimeSlot(long key, GregorianCalendar date, Delivery delivery, Drone drone) {
         delivery = entityManager.merge(delivery);
         drone = entityManager.merge(drone);
-        TimeSlot timeSlot = new TimeSlot(date, TimeState.DELIVERY);
-        drone.add(timeSlot);
-        timeSlot.setDelivery(delivery);
+        DroneOccupancy occupancy = occupancyIndex.of(drone);
+        if (occupancyIndex.isPacked()) {
+            dailyPlan(drone, SlotClock.day(key)).deliver(SlotClock.slot(key), delivery.getDeliveryId());
+        } else {
+            TimeSlot timeSlot = new TimeSlot(date, TimeState.DELIVERY);
+            drone.add(timeSlot);
+            occupancyIndex.timeSlots().added(drone.getTimeSlots(), timeSlot);
+            timeSlot.setDelivery(delivery);
+        }
+        occupancy.record(key, TimeState.DELIVERY);
+        occupancyIndex.journal(drone, key, TimeState.DELIVERY, true);
         delivery.setDrone(drone);
     }
 
@@ -196,18 +972,63 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
      * Creates a charging time slot.
      */
     public void createChargingTimeSlot(GregorianCalendar date, Drone drone) {
-        createTimeSlot(date, drone, TimeState.CHARGING);
+        createTimeSlot(SlotClock.keyOf(date), date, drone, TimeState.CHARGING);
     }
 
     /**
      * Creates a charging time slot.
      */
-    private void createTimeSlot(GregorianCalendar date, Drone drone, TimeState timeState) {
+    private void createTimeSlot(long key, GregorianCalendar date, Drone drone, TimeState timeState) {
         drone = entityManager.merge(drone);
-        TimeSlot timeSlot = new TimeSlot();
-        timeSlot.setDate(date);
-        timeSlot.setState(timeState);
-        drone.getTimeSlots().add(timeSlot);
+        DroneOccupancy occupancy = occupancyIndex.of(drone);
+        if (occupancyIndex.isPacked()) {
+            dailyPlan(drone, SlotClock.day(key)).record(SlotClock.slot(key), timeState);
+            if (occupancy.isRecorded(key)) {
+                occupancy.update(key, timeState);
+                occupancyIndex.journal(drone, key, timeState, false);
+                return;
+            }
+        } else {
+            TimeSlot timeSlot = new TimeSlot();
+            timeSlot.setDate(date);
+            timeSlot.setState(timeState);
+            drone.getTimeSlots().add(timeSlot);
+            occupancyIndex.timeSlots().added(drone.getTimeSlots(), timeSlot);
+        }
+        occupancy.record(key, timeState);
+        occupancyIndex.journal(drone, key, timeState, true);
+    }
+
+    /**
+     * Check the slot claimed against the row of its day, which another node may
+     * have written since the index read it. The index is refreshed from the row,
+     * so that the drone is no longer found free if the slot is taken.
+     */
+    private boolean isFresh(Drone drone, long key) {
+        if (!occupancyIndex.isPacked()) {
+            return true;
+        }
+        DailyPlan plan = entityManager.find(DailyPlan.class,
+                new DailyPlan.Key(drone.getDroneId(), SlotClock.day(key)));
+        if (plan == null) {
+            return true;
+        }
+        occupancyIndex.refresh(drone, plan);
+        TimeState state = plan.stateAt(SlotClock.slot(key));
+        return state == null || state == TimeState.AVAILABLE;
+    }
+
+    /**
+     * The row of the day of the drone, created on its first slot. Concurrent
+     * changes of the same row fail on commit, through its version.
+     */
+    private DailyPlan dailyPlan(Drone drone, long day) {
+        DailyPlan plan = entityManager.find(DailyPlan.class, new DailyPlan.Key(drone.getDroneId(), day));
+        if (plan == null) {
+            plan = new DailyPlan(drone.getDroneId(), day);
+            entityManager.persist(plan);
+        }
+        return plan;
     }
 
     public Optional<Drone> findById(String id) {
@@ -225,40 +1046,15 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
         }
     }
 
-    private void checkAvailability(GregorianCalendar date, Drone drone) throws TimeslotUnvailableException {
-        TimeState ts = dateIsAvailable(date, drone);
+    private void checkAvailability(long key, GregorianCalendar date, Drone drone)
+            throws TimeslotUnvailableException {
+        TimeState ts = occupancyIndex.stateAt(drone, key);
         if (ts != TimeState.AVAILABLE) {
             String time = date.get(GregorianCalendar.HOUR) + ":" + date.get(GregorianCalendar.MINUTE);
             throw new TimeslotUnvailableException(time, ts.toString());
         }
     }
 
-    private void initDailyTimeSlots(Drone drone) {
-        // Check if a review is required
-        int droneNeedsReview = 80 - drone.getFlightTime();
-        boolean reviewScheduled = false;
-        int droneNeedsCharge = 3;
-
-        // 3h review = 12 timeslots
-        for (int i = 0; i < NUMBER_OF_SLOT_PER_DAYS; i++) {
-            if (droneNeedsReview == 0 && !reviewScheduled) {
-                for (int j = 0; j < 12 && i < NUMBER_OF_SLOT_PER_DAYS; j++, i++) {
-                    createTimeSlot(getDateFromIndex(i), drone, TimeState.REVIEW);
-                }
-                reviewScheduled = true;
-            } else if (droneNeedsCharge == 0) {
-                for (int k = 0; k < 4 && i < NUMBER_OF_SLOT_PER_DAYS; k++, i++) {
-                    createTimeSlot(getDateFromIndex(i), drone, TimeState.RESERVED_FOR_CHARGE);
-                }
-                droneNeedsCharge = 2;
-            } else {
-                // It's available so probably a delivery
-                droneNeedsCharge--;
-                droneNeedsReview--;
-            }
-        }
-    }
-
     /**
      * Get date from slot's index, it's today date
      *
@@ -266,14 +1062,7 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
      * @return date
      */
     public GregorianCalendar getDateFromIndex(int index) {
-        GregorianCalendar now = new GregorianCalendar();
-        GregorianCalendar startingDay = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
-                now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), STARTING_HOUR, 0);
-        long millisFromStartingDay = (long) index * 15 * 60 * 1000;
-        long millisNow = startingDay.getTimeInMillis() + millisFromStartingDay;
-        GregorianCalendar date = new GregorianCalendar();
-        date.setTimeInMillis(millisNow);
-        return date;
+        return SlotClock.toCalendar(SlotClock.key(SlotClock.today(), index));
     }
 
     /**
@@ -283,32 +1072,19 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
      * @return index
      */
     public int getIndexFromDate(GregorianCalendar date) {
-        GregorianCalendar startingDay = new GregorianCalendar(date.get(GregorianCalendar.YEAR),
-                date.get(GregorianCalendar.MONTH), date.get(GregorianCalendar.DAY_OF_MONTH), STARTING_HOUR, 0);
-
-        long startingMillis = startingDay.getTimeInMillis();
-        long dateMillis = date.getTimeInMillis();
-
-        long index = (dateMillis - startingMillis) / 1000 / 60 / 15;
-        return (int) index;
+        return SlotClock.slot(SlotClock.keyOf(date));
     }
 
     /**
-     * Convert list timeslots to list timestate to simply algo
+     * Convert list timeslots to list timestate of a day to simply algo
      *
-     * @param timeslots
+     * @param drone
+     * @param day   epoch day
      * @return list of timestate
      */
-    private List<TimeState> convertTimeSlotsToList(List<TimeSlot> timeslots) {
-        List<TimeSlot> timeslots2 = new ArrayList<>(timeslots);
-        TimeState[] schedule = new TimeState[NUMBER_OF_SLOT_PER_DAYS];
-        Arrays.fill(schedule, null);
-
-        for (int i = 0; i < timeslots2.size(); i++) {
-            int index = getIndexFromDate(timeslots2.get(i).getDate());
-            schedule[index] = timeslots2.get(i).getState();
-        }
-        return Arrays.asList(schedule);
+    List<TimeState> convertTimeSlotsToList(Drone drone, long day) {
+        return Arrays.asList(
+                DroneOccupancy.planning(occupancyIndex.timeSlotsOf(drone, day, day), day, drone.getFlightTime()));
     }
 
     /**
@@ -319,11 +1095,12 @@ public class ScheduleBean implements DeliveryOrganizer, DeliveryScheduler {
      * @return delivery
      */
     public TimeSlot findTimeSlotAtDate(List<TimeSlot> timeslots, GregorianCalendar date) {
-        for (TimeSlot ts : timeslots) {
-            if (ts.getDate().compareTo(date) == 0)
-                return ts;
-        }
-        return null;
+        TimeSlot ts = findTimeSlotAtKey(timeslots, SlotClock.keyOf(date));
+        return ts != null && ts.getDate().compareTo(date) == 0 ? ts : null;
+    }
+
+    private TimeSlot findTimeSlotAtKey(List<TimeSlot> timeslots, long key) {
+        return occupancyIndex.timeSlots().find(timeslots, key);
     }
 
 }
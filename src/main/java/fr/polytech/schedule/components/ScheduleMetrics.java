@@ -0,0 +1,227 @@
+package fr.polytech.schedule.components;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import fr.polytech.entities.TimeState;
+
+/**
+ * Latencies, exceptions and fleet utilisation of the schedule, exposed through
+ * JMX. Business methods are measured by {@link MetricsInterceptor}, the steps
+ * of the scheduling by the schedule bean itself.
+ * <p>
+ * Metrics can be switched off with <code>schedule.metrics=false</code> or at
+ * runtime, recording then costs a volatile read.
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class ScheduleMetrics implements ScheduleMetricsMXBean {
+
+    private static final Logger log = Logger.getLogger(ScheduleMetrics.class.getName());
+
+    public static final String OBJECT_NAME = "fr.polytech.schedule:type=ScheduleMetrics";
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> exceptions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> rejections = new ConcurrentHashMap<>();
+    private final LongAdder overflows = new LongAdder();
+
+    private volatile boolean enabled = Boolean.parseBoolean(System.getProperty("schedule.metrics", "true"));
+
+    @EJB
+    private OccupancyIndex occupancyIndex;
+
+    @PostConstruct
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Schedule metrics are not exposed", e);
+        }
+    }
+
+    @PreDestroy
+    public void unregister() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            log.log(Level.FINEST, "Schedule metrics were not exposed", e);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * @return the start of a measure, to be given to
+     *         {@link #record(String, long)}
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time elapsed since the start of a measure
+     *
+     * @param name  of the method or step
+     * @param start given by {@link #start()}
+     */
+    public void record(String name, long start) {
+        if (enabled && start != 0) {
+            histogram(name).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Count an exception thrown, or returned as a rejection
+     *
+     * @param e
+     */
+    public void thrown(Exception e) {
+        if (enabled) {
+            count(exceptions, e);
+        }
+    }
+
+    /**
+     * Count a request refused by the pipeline, its queue being full
+     */
+    public void overflowed() {
+        if (enabled) {
+            overflows.increment();
+        }
+    }
+
+    /**
+     * Count a rejection returned without its exception, under the name of the
+     * exception
+     *
+     * @param reason
+     */
+    public void thrown(Rejection reason) {
+        if (enabled) {
+            count(exceptions, reason.getException().getSimpleName());
+        }
+    }
+
+    /**
+     * Count a request rejected by the validation, under the name of the
+     * exception
+     *
+     * @param reason
+     */
+    public void rejected(Rejection reason) {
+        if (enabled) {
+            count(rejections, reason.getException().getSimpleName());
+        }
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> snapshots = new TreeMap<>();
+        latencies.forEach((name, histogram) -> snapshots.put(name, LatencySnapshot.of(histogram)));
+        return snapshots;
+    }
+
+    @Override
+    public Map<String, Long> getExceptions() {
+        return sums(exceptions);
+    }
+
+    @Override
+    public Map<String, Long> getRejections() {
+        return sums(rejections);
+    }
+
+    @Override
+    public long getOverflows() {
+        return overflows.sum();
+    }
+
+    @Override
+    public Map<String, Long> getUtilisation() {
+        Map<TimeState, Long> census = occupancyIndex.census(SlotClock.today());
+        Map<String, Long> utilisation = new TreeMap<>();
+        for (TimeState state : TimeState.values()) {
+            utilisation.put(state.name(), census.getOrDefault(state, 0L));
+        }
+        return utilisation;
+    }
+
+    @Override
+    public Map<String, Long> getCache() {
+        Map<String, Long> cache = new TreeMap<>();
+        cache.put("hits", occupancyIndex.getHits());
+        cache.put("misses", occupancyIndex.getMisses());
+        cache.put("evictions", occupancyIndex.getEvictions());
+        cache.put("restored", occupancyIndex.getRestored());
+        cache.put("size", (long) occupancyIndex.getSize());
+        return cache;
+    }
+
+    @Override
+    public void reset() {
+        latencies.values().forEach(LatencyHistogram::reset);
+        exceptions.values().forEach(LongAdder::reset);
+        rejections.values().forEach(LongAdder::reset);
+        overflows.reset();
+    }
+
+    private static void count(ConcurrentMap<String, LongAdder> counters, Exception e) {
+        count(counters, e.getClass().getSimpleName());
+    }
+
+    private static void count(ConcurrentMap<String, LongAdder> counters, String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    private static Map<String, Long> sums(ConcurrentMap<String, LongAdder> counters) {
+        Map<String, Long> sums = new TreeMap<>();
+        counters.forEach((name, counter) -> sums.put(name, counter.sum()));
+        return sums;
+    }
+
+    private LatencyHistogram histogram(String name) {
+        LatencyHistogram histogram = latencies.get(name);
+        if (histogram == null) {
+            histogram = latencies.computeIfAbsent(name, k -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,50 @@
+package fr.polytech.schedule.components;
+
+import java.util.Map;
+
+/**
+ * Management interface of the schedule metrics, registered as
+ * <code>fr.polytech.schedule:type=ScheduleMetrics</code>
+ */
+public interface ScheduleMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return latency of each business method and of the steps of the
+     *         scheduling, in nanoseconds
+     */
+    Map<String, LatencySnapshot> getLatencies();
+
+    /**
+     * @return number of exceptions thrown, by exception class
+     */
+    Map<String, Long> getExceptions();
+
+    /**
+     * @return number of requests rejected before any database access, by
+     *         exception class
+     */
+    Map<String, Long> getRejections();
+
+    /**
+     * @return number of deliveries refused by the pipeline, its queue being
+     *         full
+     */
+    long getOverflows();
+
+    /**
+     * @return number of slots of today in each state, over the indexed drones
+     */
+    Map<String, Long> getUtilisation();
+
+    /**
+     * @return hits, misses, evictions and restorations of the occupancy cache,
+     *         and the number of drones it holds
+     */
+    Map<String, Long> getCache();
+
+    void reset();
+}
@@ -0,0 +1,204 @@
+package fr.polytech.schedule.components;
+
+import java.util.ArrayList;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.ejb.ConcurrencyManagement;
+import javax.ejb.ConcurrencyManagementType;
+import javax.ejb.EJB;
+import javax.ejb.LocalBean;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.enterprise.concurrent.ManagedExecutorService;
+
+import fr.polytech.entities.Delivery;
+
+/**
+ * Asynchronous scheduling. Deliveries are queued and booked by a few workers,
+ * in batches of the queued requests, each batch in its own transaction through
+ * {@link DeliveryScheduler#scheduleDeliveries(List)}.
+ * <p>
+ * Configured by the <code>schedule.pipeline.*</code> properties: the capacity
+ * of the queue, the number of workers, the size of the batches, and what to do
+ * when the queue is full, <code>REJECT</code> at once or <code>BLOCK</code> the
+ * caller for at most <code>offerTimeout</code> milliseconds. Overflows are
+ * counted apart from the rejections of the scheduling.
+ * <p>
+ * Each {@link ScheduleShard} of the node has its own queue and at least one
+ * worker, so that the shards are booked in parallel.
+ */
+@Singleton
+@Startup
+@LocalBean
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class SchedulePipeline {
+
+    private static final Logger log = Logger.getLogger(SchedulePipeline.class.getName());
+
+    public enum Overflow {
+        REJECT, BLOCK
+    }
+
+    private static final int CAPACITY = Integer.getInteger("schedule.pipeline.capacity", 1024);
+    private static final int WORKERS = Integer.getInteger("schedule.pipeline.workers", 2);
+    private static final int BATCH = Integer.getInteger("schedule.pipeline.batch", 32);
+    private static final Overflow OVERFLOW = Overflow
+            .valueOf(System.getProperty("schedule.pipeline.overflow", Overflow.REJECT.name()));
+    private static final long OFFER_TIMEOUT = Long.getLong("schedule.pipeline.offerTimeout", 100L);
+
+    private int capacity = CAPACITY;
+    private int workerCount = WORKERS;
+    private Overflow overflow = OVERFLOW;
+    private long offerTimeout = OFFER_TIMEOUT;
+
+    private BlockingQueue<Ticket>[] queues;
+    private final List<Future<?>> workers = new ArrayList<>();
+    private volatile boolean running;
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    @EJB
+    private DeliveryScheduler scheduler;
+
+    @EJB
+    private ScheduleMetrics metrics;
+
+    @SuppressWarnings("unchecked")
+    private static BlockingQueue<Ticket>[] newQueues(int capacity) {
+        BlockingQueue<Ticket>[] queues = new BlockingQueue[ScheduleShard.COUNT];
+        for (int shard : ScheduleShard.owned()) {
+            queues[shard] = new ArrayBlockingQueue<>(capacity);
+        }
+        return queues;
+    }
+
+    @PostConstruct
+    public void start() {
+        queues = newQueues(capacity);
+        running = true;
+        int[] owned = ScheduleShard.owned();
+        for (int i = 0; i < Math.max(workerCount, owned.length); i++) {
+            BlockingQueue<Ticket> queue = queues[owned[i % owned.length]];
+            workers.add(executor.submit(() -> work(queue)));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        workers.forEach(worker -> worker.cancel(true));
+        List<Ticket> pending = new ArrayList<>();
+        for (BlockingQueue<Ticket> queue : queues) {
+            if (queue != null) {
+                queue.drainTo(pending);
+            }
+        }
+        pending.forEach(ticket -> ticket.result.completeExceptionally(new RejectedExecutionException("Stopped")));
+    }
+
+    /**
+     * Queue a delivery to schedule
+     *
+     * @param date     of the delivery
+     * @param delivery to schedule
+     * @return the outcome of the scheduling, failed with a
+     *         <code>RejectedExecutionException</code> if the queue of its shard
+     *         is full, rejected at once if this node does not own its shard
+     */
+    public CompletableFuture<ScheduleResult> submit(GregorianCalendar date, Delivery delivery) {
+        Ticket ticket = new Ticket(new ScheduleRequest(date, delivery), metrics.start());
+        BlockingQueue<Ticket> queue = queues[ScheduleShard.route(delivery)];
+        if (queue == null) {
+            metrics.rejected(Rejection.SHARD_NOT_OWNED);
+            ticket.result.complete(ScheduleResult.rejected(delivery, date, Rejection.SHARD_NOT_OWNED));
+            return ticket.result;
+        }
+        boolean queued;
+        try {
+            queued = running && (overflow == Overflow.BLOCK ? queue.offer(ticket, offerTimeout, TimeUnit.MILLISECONDS)
+                    : queue.offer(ticket));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            queued = false;
+        }
+        if (!queued) {
+            metrics.overflowed();
+            ticket.result.completeExceptionally(new RejectedExecutionException("Scheduling queue is full"));
+        }
+        return ticket.result;
+    }
+
+    /**
+     * @return number of deliveries waiting to be scheduled
+     */
+    public int getQueued() {
+        int queued = 0;
+        for (BlockingQueue<Ticket> queue : queues) {
+            queued += queue == null ? 0 : queue.size();
+        }
+        return queued;
+    }
+
+    private void work(BlockingQueue<Ticket> queue) {
+        List<Ticket> batch = new ArrayList<>(BATCH);
+        List<ScheduleRequest> requests = new ArrayList<>(BATCH);
+        while (running) {
+            try {
+                Ticket first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH - 1);
+                for (Ticket ticket : batch) {
+                    metrics.record("pipeline.wait", ticket.queuedAt);
+                    requests.add(ticket.request);
+                }
+                book(batch, requests);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+                requests.clear();
+            }
+        }
+    }
+
+    private void book(List<Ticket> batch, List<ScheduleRequest> requests) {
+        try {
+            List<ScheduleResult> results = scheduler.scheduleDeliveries(requests);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        } catch (Exception e) {
+            // The whole batch has been rolled back
+            log.log(Level.FINE, "Batch of " + batch.size() + " deliveries failed", e);
+            batch.forEach(ticket -> ticket.result.completeExceptionally(e));
+        }
+    }
+
+    private static final class Ticket {
+        private final ScheduleRequest request;
+        private final long queuedAt;
+        private final CompletableFuture<ScheduleResult> result = new CompletableFuture<>();
+
+        private Ticket(ScheduleRequest request, long queuedAt) {
+            this.request = request;
+            this.queuedAt = queuedAt;
+        }
+    }
+}
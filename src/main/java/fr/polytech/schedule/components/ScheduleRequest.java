@@ -0,0 +1,30 @@
+package fr.polytech.schedule.components;
+
+import java.io.Serializable;
+import java.util.GregorianCalendar;
+
+import fr.polytech.entities.Delivery;
+
+/**
+ * A delivery to schedule at a given date, used by batch scheduling
+ */
+public class ScheduleRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GregorianCalendar date;
+    private final Delivery delivery;
+
+    public ScheduleRequest(GregorianCalendar date, Delivery delivery) {
+        this.date = date;
+        this.delivery = delivery;
+    }
+
+    public GregorianCalendar getDate() {
+        return date;
+    }
+
+    public Delivery getDelivery() {
+        return delivery;
+    }
+}
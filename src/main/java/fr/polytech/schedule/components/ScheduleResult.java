@@ -0,0 +1,89 @@
+package fr.polytech.schedule.components;
+
+import java.io.Serializable;
+import java.util.GregorianCalendar;
+
+import fr.polytech.entities.Delivery;
+import fr.polytech.entities.Drone;
+
+/**
+ * Outcome of the scheduling of one delivery
+ */
+public class ScheduleResult implements Serializable {
+
+    private static final long serialVersionUID = 2L;
+
+    private final Delivery delivery;
+    private final GregorianCalendar date;
+    private final Drone drone;
+    private final Rejection reason;
+    private final String detail;
+    private Exception error;
+
+    private ScheduleResult(Delivery delivery, GregorianCalendar date, Drone drone, Rejection reason, String detail) {
+        this.delivery = delivery;
+        this.date = date;
+        this.drone = drone;
+        this.reason = reason;
+        this.detail = detail;
+    }
+
+    public static ScheduleResult scheduled(Delivery delivery, GregorianCalendar date, Drone drone) {
+        return new ScheduleResult(delivery, date, drone, null, null);
+    }
+
+    public static ScheduleResult rejected(Delivery delivery, GregorianCalendar date, Rejection reason) {
+        return rejected(delivery, date, reason, "");
+    }
+
+    /**
+     * @param detail of the reason, the state of the slot for an unavailable
+     *               timeslot, the delivery hours of the day for a date out
+     *               of them
+     */
+    public static ScheduleResult rejected(Delivery delivery, GregorianCalendar date, Rejection reason,
+            String detail) {
+        return new ScheduleResult(delivery, date, null, reason, detail);
+    }
+
+    public boolean isScheduled() {
+        return reason == null;
+    }
+
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    public GregorianCalendar getDate() {
+        return date;
+    }
+
+    /**
+     * @return the drone of the delivery, null if it has been rejected
+     */
+    public Drone getDrone() {
+        return drone;
+    }
+
+    /**
+     * @return the reason of the rejection, null if it has been scheduled
+     */
+    public Rejection getReason() {
+        return reason;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * @return the exception of the throwing API for the rejection, built on
+     *         demand, null if it has been scheduled
+     */
+    public Exception getError() {
+        if (error == null && reason != null) {
+            error = reason.toException(this);
+        }
+        return error;
+    }
+}
@@ -0,0 +1,162 @@
+package fr.polytech.schedule.components;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import fr.polytech.entities.Delivery;
+
+/**
+ * Group of drones of the warehouse scheduled on its own. Drones are split in
+ * ranges of ids by the <code>schedule.shards.bounds</code> property, the
+ * sorted ids starting each shard but the first (<code>250,500,750</code> for
+ * four shards), each shard owning the free drone counts of its drones. A
+ * delivery is routed to a shard by the hash of its id.
+ * <p>
+ * The ranges are given to the queries, so that the database only returns the
+ * drones of a shard: the collation of the drone id column must order the ids
+ * as {@link String#compareTo(String)} does, which is the case of the binary
+ * collations.
+ * <p>
+ * An application node schedules the shards listed by the
+ * <code>schedule.shards.owned</code> property, all of them by default. Nodes
+ * sharing the database must own disjoint shards. A delivery is booked on the
+ * drones of its own shard first, then on the other shards of the node: the
+ * front of the nodes must send it to the node owning {@link #route(Delivery)},
+ * a node rejects the deliveries of the shards it does not own.
+ */
+public final class ScheduleShard {
+
+    private static final String[] BOUNDS = bounds(System.getProperty("schedule.shards.bounds"));
+
+    public static final int COUNT = BOUNDS.length + 1;
+
+    private static final int[] OWNED = owned(System.getProperty("schedule.shards.owned"));
+
+    private final int id;
+    private final ConcurrentMap<Long, SlotAvailability> availabilities = new ConcurrentHashMap<>();
+
+    ScheduleShard(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @return every shard, indexed by id
+     */
+    static ScheduleShard[] newShards() {
+        ScheduleShard[] shards = new ScheduleShard[COUNT];
+        Arrays.setAll(shards, ScheduleShard::new);
+        return shards;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @param droneId
+     * @return the shard of the drone
+     */
+    public static int of(String droneId) {
+        int bound = Arrays.binarySearch(BOUNDS, droneId);
+        return bound >= 0 ? bound + 1 : -bound - 1;
+    }
+
+    /**
+     * @param shard
+     * @return the first drone id of the shard, null for the first shard
+     */
+    public static String lowerBound(int shard) {
+        return shard == 0 ? null : BOUNDS[shard - 1];
+    }
+
+    /**
+     * @param shard
+     * @return the first drone id of the next shard, null for the last shard
+     */
+    public static String upperBound(int shard) {
+        return shard == COUNT - 1 ? null : BOUNDS[shard];
+    }
+
+    /**
+     * @param delivery
+     * @return the shard of the delivery, owned or not by this node
+     */
+    public static int route(Delivery delivery) {
+        int hash = delivery.getDeliveryId() == null ? 0 : delivery.getDeliveryId().hashCode();
+        return Math.floorMod(hash, COUNT);
+    }
+
+    /**
+     * @return the shards scheduled by this node, ascending
+     */
+    public static int[] owned() {
+        return OWNED.clone();
+    }
+
+    public static boolean isOwned(int shard) {
+        return Arrays.binarySearch(OWNED, shard) >= 0;
+    }
+
+    private static String[] bounds(String property) {
+        if (property == null || property.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] bounds = Arrays.stream(property.split(",")).map(String::trim).toArray(String[]::new);
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i - 1].compareTo(bounds[i]) >= 0) {
+                throw new IllegalArgumentException("Unsorted drone ids in schedule.shards.bounds=" + property);
+            }
+        }
+        return bounds;
+    }
+
+    private static int[] owned(String property) {
+        if (property == null || property.trim().isEmpty()) {
+            int[] all = new int[COUNT];
+            Arrays.setAll(all, i -> i);
+            return all;
+        }
+        int[] owned = Arrays.stream(property.split(",")).map(String::trim).mapToInt(Integer::parseInt)
+                .filter(shard -> shard >= 0 && shard < COUNT).distinct().sorted().toArray();
+        if (owned.length == 0) {
+            throw new IllegalArgumentException("No shard of [0, " + COUNT + ") in schedule.shards.owned=" + property);
+        }
+        return owned;
+    }
+
+    /**
+     * @param epochDay
+     * @return the free drones of the day, null if they are not counted
+     */
+    SlotAvailability availability(long epochDay) {
+        return availabilities.get(epochDay);
+    }
+
+    /**
+     * Keep the counts of a day up to date, unless another search registered
+     * the day first
+     */
+    void register(SlotAvailability availability) {
+        availabilities.putIfAbsent(availability.getEpochDay(), availability);
+    }
+
+    void changed(String droneId, long key, boolean free) {
+        SlotAvailability availability = availabilities.get(SlotClock.day(key));
+        if (availability != null) {
+            availability.changed(droneId, SlotClock.slot(key), free);
+        }
+    }
+
+    void drop(long epochDay) {
+        availabilities.remove(epochDay);
+    }
+
+    void dropBefore(long epochDay) {
+        availabilities.keySet().removeIf(day -> day < epochDay);
+    }
+
+    void reset() {
+        availabilities.clear();
+    }
+}
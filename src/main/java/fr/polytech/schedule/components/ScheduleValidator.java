@@ -0,0 +1,36 @@
+package fr.polytech.schedule.components;
+
+import fr.polytech.entities.Delivery;
+
+/**
+ * Checks of a scheduling request needing neither the database nor the
+ * occupancy of the drones, run before anything else so that invalid requests
+ * are rejected for nothing.
+ * <p>
+ * The delivery is checked as given, the managed delivery is checked again when
+ * it is booked.
+ */
+public final class ScheduleValidator {
+
+    private ScheduleValidator() {
+    }
+
+    /**
+     * @param calendar of the warehouse
+     * @param key      slot of the requested date
+     * @param delivery to schedule
+     * @return the reason the request is invalid, null if it is valid
+     */
+    public static Rejection check(OperatingCalendar calendar, long key, Delivery delivery) {
+        if (!calendar.isOpen(key)) {
+            return Rejection.OUTSIDE_OF_DELIVERY_HOURS;
+        }
+        if (delivery.getDrone() != null) {
+            return Rejection.ALREADY_SCHEDULED;
+        }
+        if (!ScheduleShard.isOwned(ScheduleShard.route(delivery))) {
+            return Rejection.SHARD_NOT_OWNED;
+        }
+        return null;
+    }
+}
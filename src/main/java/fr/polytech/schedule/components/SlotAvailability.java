@@ -0,0 +1,156 @@
+package fr.polytech.schedule.components;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Number of free drones on each slot of a day, held in a max segment tree so
+ * that the first slot having a free drone from a given slot is found in
+ * log(slots).
+ * <p>
+ * Only the drones added to the day are counted, the changes of the other
+ * drones are ignored. The ids of the drones free on each slot are kept as
+ * well, so that a drone can be chosen without reading the fleet.
+ */
+public class SlotAvailability {
+
+    private static final int LEAVES = Math.max(1, Integer.highestOneBit(ScheduleBean.NUMBER_OF_SLOT_PER_DAYS - 1) << 1);
+
+    private final long epochDay;
+    private final int[] max = new int[2 * LEAVES];
+    // Drones in the order they are added, by id, and the free ones of each slot
+    private final List<String> drones = new ArrayList<>();
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final BitSet[] free = new BitSet[ScheduleBean.NUMBER_OF_SLOT_PER_DAYS];
+    private volatile boolean complete;
+    private volatile long countedAt;
+
+    public SlotAvailability(long epochDay) {
+        this.epochDay = epochDay;
+        for (int slot = 0; slot < free.length; slot++) {
+            free[slot] = new BitSet();
+        }
+    }
+
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    /**
+     * @return true once every drone has been added
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void completed() {
+        countedAt = System.nanoTime();
+        complete = true;
+    }
+
+    /**
+     * @return the <code>System.nanoTime()</code> at which every drone had been
+     *         added
+     */
+    public long getCountedAt() {
+        return countedAt;
+    }
+
+    /**
+     * Count the free slots of a drone
+     *
+     * @param droneId
+     * @param freeMask bitmask of the free slots of the drone on the day
+     */
+    public synchronized void add(String droneId, long freeMask) {
+        if (indexes.containsKey(droneId)) {
+            return;
+        }
+        int index = drones.size();
+        drones.add(droneId);
+        indexes.put(droneId, index);
+        for (long mask = freeMask; mask != 0; mask &= mask - 1) {
+            int slot = Long.numberOfTrailingZeros(mask);
+            if (slot < free.length) {
+                free[slot].set(index);
+                change(slot, 1);
+            }
+        }
+    }
+
+    /**
+     * @param droneId
+     * @param slot    index of the slot in the day
+     * @param isFree  true if the slot of the drone has been freed, false if it
+     *                has been taken
+     */
+    public synchronized void changed(String droneId, int slot, boolean isFree) {
+        Integer index = indexes.get(droneId);
+        if (index != null && slot >= 0 && slot < free.length && free[slot].get(index) != isFree) {
+            free[slot].set(index, isFree);
+            change(slot, isFree ? 1 : -1);
+        }
+    }
+
+    /**
+     * @param slot index of the slot in the day
+     * @return ids of the drones free on the slot, in the order they were added
+     */
+    public synchronized List<String> freeDrones(int slot) {
+        List<String> ids = new ArrayList<>(max[LEAVES + slot]);
+        for (int index = free[slot].nextSetBit(0); index >= 0; index = free[slot].nextSetBit(index + 1)) {
+            ids.add(drones.get(index));
+        }
+        return ids;
+    }
+
+    /**
+     * @param slot index of the slot in the day
+     * @return id of the first drone added free on the slot, null if there is
+     *         none
+     */
+    public synchronized String firstFreeDrone(int slot) {
+        int index = free[slot].nextSetBit(0);
+        return index < 0 ? null : drones.get(index);
+    }
+
+    /**
+     * @param slot index of the slot in the day
+     * @return number of free drones on the slot
+     */
+    public synchronized int count(int slot) {
+        return max[LEAVES + slot];
+    }
+
+    /**
+     * @param from index of the slot in the day
+     * @return the first slot from the given one having a free drone, -1 if
+     *         there is none
+     */
+    public synchronized int firstFree(int from) {
+        return find(1, 0, LEAVES, Math.max(0, from));
+    }
+
+    private void change(int slot, int delta) {
+        int node = LEAVES + slot;
+        max[node] += delta;
+        for (node >>= 1; node > 0; node >>= 1) {
+            max[node] = Math.max(max[2 * node], max[2 * node + 1]);
+        }
+    }
+
+    private int find(int node, int low, int high, int from) {
+        if (high <= from || max[node] <= 0) {
+            return -1;
+        }
+        if (high - low == 1) {
+            return low;
+        }
+        int middle = (low + high) / 2;
+        int left = find(2 * node, low, middle, from);
+        return left >= 0 ? left : find(2 * node + 1, middle, high, from);
+    }
+}
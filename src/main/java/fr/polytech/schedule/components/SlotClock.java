@@ -0,0 +1,226 @@
+package fr.polytech.schedule.components;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+/**
+ * Slot arithmetic of the schedule. A slot is encoded in a <code>long</code>
+ * key made of its epoch day and of its 15 minutes slot in the day, so that the
+ * planning can be computed without any calendar.
+ * <p>
+ * <code>GregorianCalendar</code> is only used at the boundary of the
+ * component, through {@link #keyOf(Calendar)} and {@link #toCalendar(long)}.
+ * <p>
+ * The grid of the planning is configured by the
+ * <code>schedule.slot.minutes</code>, <code>schedule.opening.hour</code> and
+ * <code>schedule.closing.hour</code> properties, 15 minutes slots from 8h to
+ * 18h by default. It is the widest day of the warehouses, their actual hours
+ * are given by their {@link OperatingCalendar}. Days are those of the
+ * <code>schedule.zone</code> time zone, the zone of the system by default.
+ */
+public final class SlotClock {
+
+    public static final int SLOT_MINUTES = Integer.getInteger("schedule.slot.minutes", 15);
+    public static final int OPENING_HOUR = Integer.getInteger("schedule.opening.hour", 8);
+    public static final int CLOSING_HOUR = Integer.getInteger("schedule.closing.hour", 18);
+
+    public static final long SLOT_MILLIS = SLOT_MINUTES * 60L * 1000L;
+    public static final int SLOTS_PER_DAY = 24 * 60 / SLOT_MINUTES;
+
+    /**
+     * Number of slots of the planning of a day, at most 64 so that a day fits
+     * in a bitmask
+     */
+    public static final int PLANNED_SLOTS = (CLOSING_HOUR - OPENING_HOUR) * 60 / SLOT_MINUTES;
+
+    /**
+     * Slot of the day of the opening hour, slot indexes of the planning are
+     * relative to it
+     */
+    private static final int FIRST_SLOT = OPENING_HOUR * 60 / SLOT_MINUTES;
+
+    static {
+        if (SLOT_MINUTES <= 0 || 24 * 60 % SLOT_MINUTES != 0 || OPENING_HOUR < 0 || CLOSING_HOUR > 24
+                || PLANNED_SLOTS <= 0 || PLANNED_SLOTS > Long.SIZE) {
+            throw new IllegalStateException("Invalid planning grid: " + SLOT_MINUTES + " minutes slots from "
+                    + OPENING_HOUR + "h to " + CLOSING_HOUR + "h");
+        }
+    }
+
+    private static final ZoneId ZONE = zone(System.getProperty("schedule.zone"));
+
+    /**
+     * Today, refreshed once the clock leaves it
+     */
+    private static volatile Day today = Day.of(LocalDate.now(ZONE).toEpochDay(), ZONE);
+
+    /**
+     * Last other day converted, so that converting the slots of another day
+     * does not evict today
+     */
+    private static volatile Day lastDay = today;
+
+    private SlotClock() {
+    }
+
+    /**
+     * @param date
+     * @return key of the slot containing the date
+     */
+    public static long keyOf(Calendar date) {
+        return keyOf(date.getTimeInMillis());
+    }
+
+    /**
+     * @param millis epoch millis
+     * @return key of the slot containing the instant
+     */
+    public static long keyOf(long millis) {
+        Day day = today;
+        if (!day.contains(millis)) {
+            day = lastDay;
+            if (!day.contains(millis)) {
+                day = Day.of(Instant.ofEpochMilli(millis).atZone(ZONE).toLocalDate().toEpochDay(), ZONE);
+                lastDay = day;
+            }
+        }
+        return day.keyOf(millis);
+    }
+
+    /**
+     * @param millis epoch millis
+     * @param zone
+     * @return key of the slot containing the instant in the zone, not cached
+     */
+    static long keyOf(long millis, ZoneId zone) {
+        return Day.of(Instant.ofEpochMilli(millis).atZone(zone).toLocalDate().toEpochDay(), zone).keyOf(millis);
+    }
+
+    /**
+     * @param epochDay
+     * @param slot     index of the slot in the planning of the day
+     * @return key of the slot
+     */
+    public static long key(long epochDay, int slot) {
+        return epochDay * SLOTS_PER_DAY + slot + FIRST_SLOT;
+    }
+
+    /**
+     * @param key
+     * @return epoch day of the slot
+     */
+    public static long day(long key) {
+        return Math.floorDiv(key, SLOTS_PER_DAY);
+    }
+
+    /**
+     * @param key
+     * @return index of the slot in the planning of its day, negative before the
+     *         opening hour
+     */
+    public static int slot(long key) {
+        return (int) Math.floorMod(key, SLOTS_PER_DAY) - FIRST_SLOT;
+    }
+
+    /**
+     * @return epoch day of today
+     */
+    public static long today() {
+        long now = System.currentTimeMillis();
+        Day day = today;
+        if (!day.contains(now)) {
+            day = Day.of(Instant.ofEpochMilli(now).atZone(ZONE).toLocalDate().toEpochDay(), ZONE);
+            today = day;
+        }
+        return day.epochDay;
+    }
+
+    /**
+     * @param key
+     * @return epoch millis of the beginning of the slot
+     */
+    public static long toMillis(long key) {
+        long epochDay = day(key);
+        Day day = today;
+        if (day.epochDay != epochDay) {
+            day = lastDay;
+            if (day.epochDay != epochDay) {
+                day = Day.of(epochDay, ZONE);
+                lastDay = day;
+            }
+        }
+        return day.toMillis(key);
+    }
+
+    /**
+     * @param key
+     * @param zone
+     * @return epoch millis of the beginning of the slot in the zone, not cached
+     */
+    static long toMillis(long key, ZoneId zone) {
+        return Day.of(day(key), zone).toMillis(key);
+    }
+
+    /**
+     * @param epochDay
+     * @param zone
+     * @return length of the day in the zone, in millis
+     */
+    static long lengthOf(long epochDay, ZoneId zone) {
+        Day day = Day.of(epochDay, zone);
+        return day.endMillis - day.startMillis;
+    }
+
+    /**
+     * @param key
+     * @return the beginning of the slot
+     */
+    public static GregorianCalendar toCalendar(long key) {
+        GregorianCalendar date = new GregorianCalendar();
+        date.setTimeInMillis(toMillis(key));
+        return date;
+    }
+
+    private static final class Day {
+        private final long epochDay;
+        private final long startMillis;
+        private final long endMillis;
+        private final long openingMillis;
+
+        private Day(long epochDay, long startMillis, long endMillis, long openingMillis) {
+            this.epochDay = epochDay;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+            this.openingMillis = openingMillis;
+        }
+
+        private static Day of(long epochDay, ZoneId zone) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            return new Day(epochDay, date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                    date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(),
+                    date.atTime(LocalTime.of(OPENING_HOUR, 0)).atZone(zone).toInstant().toEpochMilli());
+        }
+
+        private boolean contains(long millis) {
+            return millis >= startMillis && millis < endMillis;
+        }
+
+        // Slots are counted from the opening hour, so that the planning is on the
+        // hours of the clock whatever the length of the day
+        private long keyOf(long millis) {
+            return epochDay * SLOTS_PER_DAY + Math.floorDiv(millis - openingMillis, SLOT_MILLIS) + FIRST_SLOT;
+        }
+
+        private long toMillis(long key) {
+            return openingMillis + slot(key) * SLOT_MILLIS;
+        }
+    }
+
+    private static ZoneId zone(String property) {
+        return property == null || property.trim().isEmpty() ? ZoneId.systemDefault() : ZoneId.of(property.trim());
+    }
+}
@@ -0,0 +1,41 @@
+package fr.polytech.schedule.components;
+
+import java.io.Serializable;
+import java.util.GregorianCalendar;
+
+/**
+ * A slot on which a delivery can be scheduled, with the drone it would be
+ * assigned to
+ */
+public class SlotOption implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final GregorianCalendar date;
+    private final String droneId;
+    private final int freeDrones;
+
+    public SlotOption(GregorianCalendar date, String droneId, int freeDrones) {
+        this.date = date;
+        this.droneId = droneId;
+        this.freeDrones = freeDrones;
+    }
+
+    /**
+     * @return the beginning of the slot
+     */
+    public GregorianCalendar getDate() {
+        return date;
+    }
+
+    public String getDroneId() {
+        return droneId;
+    }
+
+    /**
+     * @return number of drones free on the slot when it has been found
+     */
+    public int getFreeDrones() {
+        return freeDrones;
+    }
+}
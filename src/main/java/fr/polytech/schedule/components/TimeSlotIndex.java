@@ -0,0 +1,63 @@
+package fr.polytech.schedule.components;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import fr.polytech.entities.TimeSlot;
+
+/**
+ * Timeslots of the drones of one transaction by slot key. The timeslots of a
+ * drone are indexed the first time one of them is looked for, and kept up to
+ * date as timeslots are created by the schedule.
+ * <p>
+ * Timeslots are managed entities, the index must not outlive its persistence
+ * context, it is held as a resource of the transaction.
+ */
+public class TimeSlotIndex {
+
+    private final Map<List<TimeSlot>, Slots> drones = new IdentityHashMap<>();
+
+    /**
+     * @param timeslots of a drone
+     * @param key       slot looked for
+     * @return the timeslot of the drone on the slot, null if there is none
+     */
+    public TimeSlot find(List<TimeSlot> timeslots, long key) {
+        Slots slots = drones.get(timeslots);
+        if (slots == null || slots.size != timeslots.size()) {
+            // Not indexed yet, or modified behind the index
+            slots = new Slots(timeslots);
+            drones.put(timeslots, slots);
+        }
+        return slots.byKey.get(key);
+    }
+
+    /**
+     * Record a timeslot just added to the timeslots of a drone
+     *
+     * @param timeslots of the drone
+     * @param timeslot  added
+     */
+    public void added(List<TimeSlot> timeslots, TimeSlot timeslot) {
+        Slots slots = drones.get(timeslots);
+        if (slots != null && slots.size + 1 == timeslots.size()) {
+            slots.byKey.putIfAbsent(SlotClock.keyOf(timeslot.getDate()), timeslot);
+            slots.size++;
+        }
+    }
+
+    private static final class Slots {
+        private final Map<Long, TimeSlot> byKey;
+        private int size;
+
+        private Slots(List<TimeSlot> timeslots) {
+            byKey = new HashMap<>(timeslots.size() * 2);
+            for (TimeSlot ts : timeslots) {
+                byKey.putIfAbsent(SlotClock.keyOf(ts.getDate()), ts);
+            }
+            size = timeslots.size();
+        }
+    }
+}
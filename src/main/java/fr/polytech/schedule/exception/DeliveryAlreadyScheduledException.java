@@ -15,6 +15,7 @@ public class DeliveryAlreadyScheduledException extends Exception implements Seri
     private String deliveryId;
 
     public DeliveryAlreadyScheduledException(String deliveryId) {
+        super(null, null, false, false);
         this.deliveryId = deliveryId;
     }
 
@@ -12,6 +12,7 @@ public class NoFreeDroneAtThisTimeSlotException extends Exception implements Ser
     private String time;
 
     public NoFreeDroneAtThisTimeSlotException(String time) {
+        super(null, null, false, false);
         this.time = time;
     }
 
@@ -13,6 +13,7 @@ public class OutsideOfDeliveryHoursException extends Exception implements Serial
     private int closingHour;
 
     public OutsideOfDeliveryHoursException(int startingHour, int closingHour) {
+        super(null, null, false, false);
         this.startingHour = startingHour;
         this.closingHour = closingHour;
     }
@@ -0,0 +1,29 @@
+package fr.polytech.schedule.exception;
+
+import java.io.Serializable;
+
+/**
+ * A delivery sent to a node not owning its shard, the deliveries must be
+ * routed to the node of their shard
+ */
+public class ShardNotOwnedException extends IllegalStateException implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private int shard;
+
+    public ShardNotOwnedException(int shard) {
+        super();
+        this.shard = shard;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    @Override
+    public String getMessage() {
+        return "Shard " + shard + " is not scheduled by this node";
+    }
+
+}
@@ -17,6 +17,7 @@ public class TimeslotUnvailableException extends Exception implements Serializab
     }
 
     public TimeslotUnvailableException(String date, String reason) {
+        super(null, null, false, false);
         this.date = date;
         this.reason = reason;
     }
@@ -1,18 +1,28 @@
 package fr.polytech.schedule.business;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.ejb.EJB;
 import javax.inject.Inject;
@@ -24,6 +34,7 @@ import org.jboss.arquillian.junit.Arquillian;
 import org.jboss.arquillian.transaction.api.annotation.TransactionMode;
 import org.jboss.arquillian.transaction.api.annotation.Transactional;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -33,9 +44,25 @@ import fr.polytech.entities.Delivery;
 import fr.polytech.entities.Drone;
 import fr.polytech.entities.Parcel;
 import fr.polytech.entities.TimeState;
+import fr.polytech.schedule.components.Assignment;
+import fr.polytech.schedule.components.DailyPlan;
 import fr.polytech.schedule.components.DeliveryOrganizer;
 import fr.polytech.schedule.components.DeliveryScheduler;
+import fr.polytech.schedule.components.DroneOccupancy;
+import fr.polytech.schedule.components.FleetPlanning;
+import fr.polytech.schedule.components.OccupancyIndex;
+import fr.polytech.schedule.components.OperatingCalendar;
+import fr.polytech.schedule.components.OperatingCalendars;
+import fr.polytech.schedule.components.PlanningLog;
+import fr.polytech.schedule.components.Rejection;
 import fr.polytech.schedule.components.ScheduleBean;
+import fr.polytech.schedule.components.ScheduleMetrics;
+import fr.polytech.schedule.components.SchedulePipeline;
+import fr.polytech.schedule.components.ScheduleRequest;
+import fr.polytech.schedule.components.ScheduleResult;
+import fr.polytech.schedule.components.ScheduleShard;
+import fr.polytech.schedule.components.SlotClock;
+import fr.polytech.schedule.components.SlotOption;
 import fr.polytech.schedule.exception.NoFreeDroneAtThisTimeSlotException;
 import fr.polytech.schedule.exception.OutsideOfDeliveryHoursException;
 import fr.polytech.schedule.exception.ZeroDronesInWarehouseException;
@@ -53,6 +80,18 @@ public class ScheduleTest extends AbstractScheduleTest {
 	@Inject
 	private ScheduleBean schedule;
 
+	@EJB
+	private OccupancyIndex occupancyIndex;
+
+	@EJB
+	private ScheduleMetrics metrics;
+
+	@EJB
+	private OperatingCalendars calendars;
+
+	@EJB
+	private SchedulePipeline pipeline;
+
 	@Inject
 	private UserTransaction utx;
 
@@ -161,6 +200,40 @@ public class ScheduleTest extends AbstractScheduleTest {
 		schedule.scheduleDelivery(c, delivery1);
 	}
 
+	@Test
+	public void scheduleDeliveryTestMetrics() throws Exception {
+		GregorianCalendar c = new GregorianCalendar(now.get(GregorianCalendar.YEAR), now.get(GregorianCalendar.MONTH),
+				now.get(GregorianCalendar.DAY_OF_MONTH), 19, 0);
+		long thrown = metrics.getExceptions().getOrDefault("OutsideOfDeliveryHoursException", 0L);
+		long rejected = metrics.getRejections().getOrDefault("OutsideOfDeliveryHoursException", 0L);
+		try {
+			schedule.scheduleDelivery(c, delivery1);
+			fail();
+		} catch (OutsideOfDeliveryHoursException e) {
+			assertEquals(thrown + 1, (long) metrics.getExceptions().get("OutsideOfDeliveryHoursException"));
+			assertEquals(rejected + 1, (long) metrics.getRejections().get("OutsideOfDeliveryHoursException"));
+		}
+		assertTrue(metrics.getLatencies().get("scheduleDelivery").getCount() > 0);
+	}
+
+	@Test
+	public void scheduleDeliveryTestBlackout() throws Exception {
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		LocalDate date = LocalDate.ofEpochDay(SlotClock.day(SlotClock.keyOf(c)));
+		calendars.set(OperatingCalendars.WAREHOUSE,
+				OperatingCalendar.alwaysOpen().blackout(date, LocalTime.of(8, 0), LocalTime.of(8, 15)));
+		try {
+			schedule.scheduleDelivery(c, delivery1);
+			fail();
+		} catch (OutsideOfDeliveryHoursException e) {
+			c.set(Calendar.MINUTE, 15);
+			assertTrue(schedule.scheduleDelivery(c, delivery1));
+		} finally {
+			calendars.set(OperatingCalendars.WAREHOUSE, OperatingCalendar.alwaysOpen());
+		}
+	}
+
 	@Test(expected = NoFreeDroneAtThisTimeSlotException.class)
 	public void scheduleDeliveryTestAtTheSameHour() throws Exception {
 		GregorianCalendar tomorrow = new GregorianCalendar();
@@ -189,6 +262,24 @@ public class ScheduleTest extends AbstractScheduleTest {
 		schedule.scheduleDelivery(c2, delivery1);
 	}
 
+	@Test
+	public void tryScheduleTest() throws Exception {
+		GregorianCalendar tomorrow = new GregorianCalendar();
+		tomorrow.setTimeInMillis(now.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		GregorianCalendar c = new GregorianCalendar(tomorrow.get(GregorianCalendar.YEAR),
+				tomorrow.get(GregorianCalendar.MONTH), tomorrow.get(GregorianCalendar.DAY_OF_MONTH), 8, 0);
+		ScheduleResult result = deliveryScheduler.trySchedule(c, delivery1);
+		assertTrue(result.isScheduled());
+		assertEquals("000", result.getDrone().getDroneId());
+
+		result = deliveryScheduler.trySchedule(c, delivery2);
+		assertEquals(Rejection.NO_FREE_DRONE, result.getReason());
+		assertTrue(result.getError() instanceof NoFreeDroneAtThisTimeSlotException);
+
+		c.set(Calendar.HOUR_OF_DAY, 22);
+		assertEquals(Rejection.OUTSIDE_OF_DELIVERY_HOURS, deliveryScheduler.trySchedule(c, delivery2).getReason());
+	}
+
 	@Test
 	public void getPlanningTestOneDelivery() throws Exception {
 		GregorianCalendar tomorrow = new GregorianCalendar();
@@ -196,11 +287,13 @@ public class ScheduleTest extends AbstractScheduleTest {
 		GregorianCalendar c = new GregorianCalendar(tomorrow.get(GregorianCalendar.YEAR),
 				tomorrow.get(GregorianCalendar.MONTH), tomorrow.get(GregorianCalendar.DAY_OF_MONTH), 8, 0);
 		schedule.scheduleDelivery(c, delivery1);
-		List<TimeState> states = schedule.getCurrentPlanning("000");
+		List<TimeState> states = schedule.getCurrentPlanning("000", c);
 		List<TimeState> model = splitString(
 				"del,ava,ava,cha,cha,cha,cha,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una");
 		for (int i = 0; i < states.size(); i++)
 			assertEquals(model.get(i), states.get(i));
+		// Today stays the current day, the delivery is tomorrow
+		assertFalse(schedule.getCurrentPlanning("000").contains(TimeState.DELIVERY));
 	}
 
 	@Test
@@ -216,7 +309,7 @@ public class ScheduleTest extends AbstractScheduleTest {
 				tomorrow.get(GregorianCalendar.MONTH), tomorrow.get(GregorianCalendar.DAY_OF_MONTH), 8, 15);
 		schedule.scheduleDelivery(c2, delivery2);
 
-		List<TimeState> states = schedule.getCurrentPlanning("000");
+		List<TimeState> states = schedule.getCurrentPlanning("000", c);
 		List<TimeState> model = splitString(
 				"del,del,ava,cha,cha,cha,cha,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una");
 		for (int i = 0; i < states.size(); i++)
@@ -240,7 +333,7 @@ public class ScheduleTest extends AbstractScheduleTest {
 				tomorrow.get(GregorianCalendar.MONTH), tomorrow.get(GregorianCalendar.DAY_OF_MONTH), 9, 45);
 		schedule.scheduleDelivery(c4, delivery3);
 
-		List<TimeState> states = schedule.getCurrentPlanning("000");
+		List<TimeState> states = schedule.getCurrentPlanning("000", c);
 		List<TimeState> model = splitString(
 				"del,del,ava,cha,cha,cha,cha,del,ava,ava,cha,cha,cha,cha,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una");
 		for (int i = 0; i < states.size(); i++)
@@ -261,13 +354,98 @@ public class ScheduleTest extends AbstractScheduleTest {
 				tomorrow.get(GregorianCalendar.MONTH), tomorrow.get(GregorianCalendar.DAY_OF_MONTH), 11, 15);
 		schedule.scheduleDelivery(c2, delivery2);
 
-		List<TimeState> states = schedule.getCurrentPlanning("000");
+		List<TimeState> states = schedule.getCurrentPlanning("000", c);
 		List<TimeState> model = splitString(
 				"del,rev,rev,rev,rev,rev,rev,rev,rev,rev,rev,rev,rev,del,ava,ava,cha,cha,cha,cha,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una");
 		for (int i = 0; i < states.size(); i++)
 			assertEquals(model.get(i), states.get(i));
 	}
 
+	@Test
+	public void getPlanningTestTwoDays() throws Exception {
+		GregorianCalendar tomorrow = new GregorianCalendar();
+		tomorrow.setTimeInMillis(now.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+
+		GregorianCalendar c = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 8, 0);
+		schedule.scheduleDelivery(c, delivery1);
+
+		GregorianCalendar c2 = new GregorianCalendar(tomorrow.get(GregorianCalendar.YEAR),
+				tomorrow.get(GregorianCalendar.MONTH), tomorrow.get(GregorianCalendar.DAY_OF_MONTH), 8, 15);
+		schedule.scheduleDelivery(c2, delivery2);
+
+		List<TimeState> model = splitString(
+				"del,ava,ava,cha,cha,cha,cha,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una,ava,ava,ava,una,una,una,una");
+		assertEquals(model.subList(0, ScheduleBean.NUMBER_OF_SLOT_PER_DAYS), schedule.getCurrentPlanning("000", c));
+		List<TimeState> states = schedule.getCurrentPlanning("000", tomorrow);
+		assertEquals(TimeState.AVAILABLE, states.get(0));
+		assertEquals(TimeState.DELIVERY, states.get(1));
+		assertEquals(TimeState.CHARGING, states.get(3));
+	}
+
+	@Test
+	public void getPlanningTestCached() throws Exception {
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		schedule.scheduleDelivery(c, delivery1);
+		List<TimeState> states = schedule.getCurrentPlanning("000", c);
+		long hits = occupancyIndex.getHits();
+		assertEquals(states, schedule.getCurrentPlanning("000", c));
+		assertTrue(occupancyIndex.getHits() > hits);
+		assertEquals(TimeState.DELIVERY, states.get(0));
+		assertEquals(occupancyIndex.getHits(), (long) metrics.getCache().get("hits"));
+		assertEquals(occupancyIndex.getSize(), (long) metrics.getCache().get("size"));
+	}
+
+	@Test
+	public void submitTest() throws Exception {
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		// The workers book in their own transactions, they must see the drone and the delivery
+		utx.commit();
+		ScheduleResult result;
+		try {
+			result = pipeline.submit(c, delivery1).get(10, TimeUnit.SECONDS);
+		} finally {
+			utx.begin();
+		}
+		assertTrue(result.isScheduled());
+		assertEquals("000", result.getDrone().getDroneId());
+		assertEquals(TimeState.DELIVERY, schedule.getCurrentPlanning("000", c).get(0));
+	}
+
+	@Test
+	public void getFleetPlanningTest() throws Exception {
+		this.drones.add(new Drone("001"));
+		entityManager.persist(drones.get(1));
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		schedule.scheduleDelivery(c, delivery1);
+		FleetPlanning fleet = schedule.getFleetPlanning(c);
+		assertEquals(Arrays.asList("000", "001"), fleet.getDroneIds());
+		for (int i = 0; i < fleet.getDroneIds().size(); i++) {
+			List<TimeState> states = schedule.getCurrentPlanning(fleet.getDroneIds().get(i), c);
+			for (int j = 0; j < fleet.getSlotsPerDay(); j++)
+				assertEquals(states.get(j), fleet.stateAt(i, j));
+		}
+		assertEquals(TimeState.DELIVERY, fleet.stateAt(0, 0));
+		assertEquals(TimeState.AVAILABLE, fleet.stateAt(1, 0));
+	}
+
+	@Test
+	public void getPlanningRangeTest() throws Exception {
+		GregorianCalendar today = schedule.getDateFromIndex(0);
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		schedule.scheduleDelivery(c, delivery1);
+		List<List<TimeState>> days = deliveryScheduler.getPlanning("000", today, c);
+		assertEquals(2, days.size());
+		assertEquals(TimeState.AVAILABLE, days.get(0).get(0));
+		assertEquals(TimeState.DELIVERY, days.get(1).get(0));
+		assertEquals(TimeState.CHARGING, days.get(1).get(3));
+		assertEquals(schedule.getCurrentPlanning("000", c), days.get(1));
+	}
+
 	@Test
 	public void getNextDeliveriesTest() throws Exception {
 		GregorianCalendar yesterday = new GregorianCalendar();
@@ -363,6 +541,10 @@ public class ScheduleTest extends AbstractScheduleTest {
 		assertTrue(schedule.scheduleDelivery(date, delivery2));
 		assertTrue(schedule.scheduleDelivery(date, delivery3));
 		assertThrows(NoFreeDroneAtThisTimeSlotException.class, () -> {
+			schedule.scheduleDelivery(date, delivery4);
+		});
+		// The request is validated before any drone is looked for
+		assertThrows(DeliveryAlreadyScheduledException.class, () -> {
 			schedule.scheduleDelivery(date, delivery1);
 		});
 		this.drones.add(new Drone("004"));
@@ -371,6 +553,108 @@ public class ScheduleTest extends AbstractScheduleTest {
 
 	}
 
+	@Test
+	public void findFreeDroneTest() throws Exception {
+		this.drones.add(new Drone("001"));
+		entityManager.persist(drones.get(1));
+
+		GregorianCalendar date = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 8, 30);
+
+		assertEquals("000", deliveryScheduler.findFreeDrone(date).get().getDroneId());
+		assertTrue(schedule.scheduleDelivery(date, delivery1));
+		assertEquals("001", deliveryScheduler.findFreeDrone(date).get().getDroneId());
+		assertTrue(schedule.scheduleDelivery(date, delivery2));
+		assertFalse(deliveryScheduler.findFreeDrone(date).isPresent());
+	}
+
+	@Test
+	public void scheduleDeliveryTestClaimedSlot() throws Exception {
+		this.drones.add(new Drone("001"));
+		entityManager.persist(drones.get(1));
+
+		GregorianCalendar date = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 8, 30);
+
+		// Another booking of the slot of the first drone is in progress
+		assertTrue(occupancyIndex.claim(drones.get(0), SlotClock.keyOf(date)));
+		assertFalse(occupancyIndex.claim(drones.get(0), SlotClock.keyOf(date)));
+
+		assertTrue(schedule.scheduleDelivery(date, delivery1));
+		assertEquals("001", entityManager.merge(delivery1).getDrone().getDroneId());
+	}
+
+	@Test
+	public void assignmentCostTest() throws Exception {
+		this.drones.add(new Drone("001"));
+		entityManager.persist(drones.get(1));
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		schedule.scheduleDelivery(c, delivery1);
+		long key = SlotClock.keyOf(c) + 1;
+		Drone loaded = schedule.findById("000").get();
+		Drone idle = schedule.findById("001").get();
+		assertTrue(Assignment.LEAST_LOADED.cost(occupancyIndex.of(loaded), key) > Assignment.LEAST_LOADED
+				.cost(occupancyIndex.of(idle), key));
+		// The charge block of the loaded drone is already active
+		assertTrue(Assignment.BEST_FIT.cost(occupancyIndex.of(loaded), key) < Assignment.BEST_FIT
+				.cost(occupancyIndex.of(idle), key));
+	}
+
+	@Test
+	public void findEarliestSlotsTest() throws Exception {
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		schedule.scheduleDelivery(c, delivery1);
+		List<SlotOption> options = deliveryScheduler.findEarliestSlots(c, 3);
+		assertEquals(3, options.size());
+		// The first slot is taken and the next charge block is now active
+		assertEquals(schedule.getIndexFromDate(c) + 1, schedule.getIndexFromDate(options.get(0).getDate()));
+		assertEquals(schedule.getIndexFromDate(c) + 2, schedule.getIndexFromDate(options.get(1).getDate()));
+		assertEquals(schedule.getIndexFromDate(c) + 7, schedule.getIndexFromDate(options.get(2).getDate()));
+		assertEquals("000", options.get(0).getDroneId());
+		// The week searched starts from the date
+		c.setTimeInMillis(c.getTimeInMillis() + 10 * 24l * 60l * 60l * 1000l);
+		assertEquals(1, deliveryScheduler.findEarliestSlots(c, 1).size());
+	}
+
+	@Test
+	public void scheduleDeliveriesTest() throws Exception {
+		this.drones.add(new Drone("001"));
+		entityManager.persist(drones.get(1));
+
+		GregorianCalendar date = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 8, 30);
+		GregorianCalendar night = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 22, 0);
+
+		List<ScheduleResult> results = deliveryScheduler.scheduleDeliveries(Arrays.asList(
+				new ScheduleRequest(date, delivery1), new ScheduleRequest(date, delivery2),
+				new ScheduleRequest(date, delivery3), new ScheduleRequest(night, delivery4)));
+
+		assertEquals(4, results.size());
+		assertEquals("000", results.get(0).getDrone().getDroneId());
+		assertEquals("001", results.get(1).getDrone().getDroneId());
+		assertTrue(results.get(2).getError() instanceof NoFreeDroneAtThisTimeSlotException);
+		assertFalse(results.get(3).isScheduled());
+	}
+
+	@Test
+	public void scheduleShardTest() throws Exception {
+		int shard = ScheduleShard.of("000");
+		assertEquals(shard, ScheduleShard.of(drones.get(0).getDroneId()));
+		// Routed by its id only, whichever node receives it
+		assertEquals(Math.floorMod(delivery1.getDeliveryId().hashCode(), ScheduleShard.COUNT),
+				ScheduleShard.route(delivery1));
+		assertTrue(ScheduleShard.isOwned(ScheduleShard.route(delivery1)));
+
+		GregorianCalendar date = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 8, 30);
+		List<ScheduleResult> results = deliveryScheduler
+				.scheduleDeliveries(Arrays.asList(new ScheduleRequest(date, delivery1)));
+		assertEquals(shard, ScheduleShard.of(results.get(0).getDrone().getDroneId()));
+	}
+
 	/*
 	 * The following methods are testing the scheduling : D = delivery N = Nothing
 	 */
@@ -386,12 +670,12 @@ public class ScheduleTest extends AbstractScheduleTest {
 		schedule.scheduleDelivery(new GregorianCalendar(now.get(GregorianCalendar.YEAR),
 				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 8, 0), delivery1);
 		drones.set(0, entityManager.merge(drones.get(0)));
-		assertEquals(18, drones.get(0).getTimeSlots().stream()
-				.filter(timeSlot -> timeSlot.getState() == TimeState.RESERVED_FOR_CHARGE).count());
-		assertEquals(1, drones.get(0).getTimeSlots().stream()
-				.filter(timeSlot -> timeSlot.getState() == TimeState.DELIVERY).count());
-		assertEquals(4, drones.get(0).getTimeSlots().stream()
-				.filter(timeSlot -> timeSlot.getState() == TimeState.CHARGING).count());
+		List<TimeState> planning = schedule.getCurrentPlanning("000", now);
+		assertEquals(18, planning.stream().filter(state -> state == TimeState.RESERVED_FOR_CHARGE).count());
+		assertEquals(1, planning.stream().filter(state -> state == TimeState.DELIVERY).count());
+		assertEquals(4, planning.stream().filter(state -> state == TimeState.CHARGING).count());
+		// Reservations are only stored once used
+		assertEquals(5, drones.get(0).getTimeSlots().size());
 
 		assertEquals(TimeState.AVAILABLE,
 				schedule.dateIsAvailable(new GregorianCalendar(now.get(GregorianCalendar.YEAR),
@@ -450,20 +734,18 @@ public class ScheduleTest extends AbstractScheduleTest {
 			assertTrue("test passed", true);
 		}
 
-		assertEquals(12, drones.get(0).getTimeSlots().stream()
-				.filter(timeSlot -> timeSlot.getState() == TimeState.REVIEW).count());
+		assertEquals(12, schedule.getCurrentPlanning("000", now).stream()
+				.filter(state -> state == TimeState.REVIEW).count());
 
 		// 4 Review
 		assertEquals(TimeState.REVIEW,
-				schedule.findTimeSlotAtDate(drones.get(0).getTimeSlots(),
-						new GregorianCalendar(now.get(GregorianCalendar.YEAR), now.get(GregorianCalendar.MONTH),
-								now.get(GregorianCalendar.DAY_OF_MONTH), 8, 15))
-						.getState());
+				schedule.dateIsAvailable(new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+						now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 8, 15),
+						drones.get(0)));
 		assertEquals(TimeState.REVIEW,
-				schedule.findTimeSlotAtDate(drones.get(0).getTimeSlots(),
-						new GregorianCalendar(now.get(GregorianCalendar.YEAR), now.get(GregorianCalendar.MONTH),
-								now.get(GregorianCalendar.DAY_OF_MONTH), 11, 00))
-						.getState());
+				schedule.dateIsAvailable(new GregorianCalendar(now.get(GregorianCalendar.YEAR),
+						now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 11, 00),
+						drones.get(0)));
 
 		assertTrue(schedule.scheduleDelivery(new GregorianCalendar(now.get(GregorianCalendar.YEAR),
 				now.get(GregorianCalendar.MONTH), now.get(GregorianCalendar.DAY_OF_MONTH), 11, 15), delivery2));
@@ -477,6 +759,111 @@ public class ScheduleTest extends AbstractScheduleTest {
 
 	}
 
+	@Test
+	public void dailyPlanTest() {
+		DailyPlan plan = new DailyPlan("000", SlotClock.today());
+		assertNull(plan.stateAt(0));
+		plan.deliver(2, "D1");
+		plan.record(3, TimeState.CHARGING);
+		assertEquals(TimeState.DELIVERY, plan.stateAt(2));
+		assertEquals("D1", plan.deliveryAt(2));
+		assertNull(plan.deliveryAt(3));
+		assertEquals(2, plan.firstDelivery(0));
+		assertEquals(-1, plan.firstDelivery(3));
+		assertEquals(2, plan.toTimeSlots().size());
+		assertEquals(3, SlotClock.slot(SlotClock.keyOf(plan.toTimeSlots().get(1).getDate())));
+	}
+
+	@Test
+	public void packedTest() throws Exception {
+		// Needs the daily plans in the persistence unit of the tests
+		try {
+			entityManager.getMetamodel().entity(DailyPlan.class);
+		} catch (IllegalArgumentException e) {
+			Assume.assumeTrue(false);
+		}
+		GregorianCalendar c = schedule.getDateFromIndex(0);
+		c.setTimeInMillis(c.getTimeInMillis() + 24l * 60l * 60l * 1000l);
+		long key = SlotClock.keyOf(c);
+		occupancyIndex.setPacked(true);
+		try {
+			delivery1 = entityManager.merge(delivery1);
+			schedule.scheduleDelivery(c, delivery1);
+			entityManager.flush();
+			DailyPlan plan = entityManager.find(DailyPlan.class, new DailyPlan.Key("000", SlotClock.day(key)));
+			assertEquals(TimeState.DELIVERY, plan.stateAt(SlotClock.slot(key)));
+			assertEquals(delivery1.getDeliveryId(), plan.deliveryAt(SlotClock.slot(key)));
+
+			// The next slot written by another node, the index does not know it
+			plan.deliver(SlotClock.slot(key) + 1, "DDDDDDDDD9");
+			entityManager.flush();
+			GregorianCalendar next = SlotClock.toCalendar(key + 1);
+			assertThrows(NoFreeDroneAtThisTimeSlotException.class,
+					() -> schedule.scheduleDelivery(next, entityManager.merge(delivery2)));
+			assertEquals(TimeState.DELIVERY, occupancyIndex.of(drones.get(0)).stateAt(key + 1));
+			entityManager.remove(plan);
+		} finally {
+			occupancyIndex.setPacked(false);
+		}
+	}
+
+	@Test
+	public void planningLogTest() throws Exception {
+		Path directory = Files.createTempDirectory("planning");
+		long key = SlotClock.key(SlotClock.today() + 1, 2);
+		DroneOccupancy occupancy = new DroneOccupancy("000", SlotClock.today());
+		occupancy.restore(Collections.emptyMap(), 0, 0, "1");
+		DroneOccupancy restored = new DroneOccupancy("000", SlotClock.today());
+		try {
+			try (PlanningLog planningLog = PlanningLog.open(directory)) {
+				planningLog.recorded(Collections.singletonList(PlanningLog.Event.rebuilt(occupancy)));
+				planningLog.recorded(Arrays.asList(new PlanningLog.Event("000", key, TimeState.DELIVERY, true)));
+			}
+			try (PlanningLog planningLog = PlanningLog.open(directory)) {
+				assertFalse(planningLog.restore(restored, "2", 0, 0));
+				assertTrue(planningLog.restore(restored, "1", 0, 1));
+			}
+		} finally {
+			delete(directory);
+		}
+		assertEquals(TimeState.DELIVERY, restored.stateAt(key));
+		assertEquals(1, restored.getIndexedSlots());
+	}
+
+	@Test
+	public void planningLogCompactionTest() throws Exception {
+		Path directory = Files.createTempDirectory("planning");
+		long key = SlotClock.key(SlotClock.today() + 1, 2);
+		DroneOccupancy occupancy = new DroneOccupancy("000", SlotClock.today());
+		occupancy.restore(Collections.emptyMap(), 0, 0, "1");
+		DroneOccupancy restored = new DroneOccupancy("000", SlotClock.today());
+		try {
+			byte[] compacted;
+			try (PlanningLog planningLog = PlanningLog.open(directory)) {
+				planningLog.recorded(Collections.singletonList(PlanningLog.Event.rebuilt(occupancy)));
+				planningLog.compact();
+				planningLog.recorded(Arrays.asList(new PlanningLog.Event("000", key, TimeState.DELIVERY, true)));
+				compacted = Files.readAllBytes(directory.resolve("planning.log"));
+			}
+			// Crash after the snapshot is written, before the log starts over
+			Files.write(directory.resolve("planning.log"), compacted);
+			try (PlanningLog planningLog = PlanningLog.open(directory)) {
+				assertTrue(planningLog.restore(restored, "1", 0, 1));
+			}
+		} finally {
+			delete(directory);
+		}
+		assertEquals(1, restored.getIndexedSlots());
+	}
+
+	private static void delete(Path directory) throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+				Files.delete(file);
+			}
+		}
+	}
+
 	@Test
 	public void getIndexFromDateTest() {
 		GregorianCalendar date = new GregorianCalendar(now.get(GregorianCalendar.YEAR),
@@ -0,0 +1,76 @@
+package fr.polytech.schedule.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDate;
+import java.util.Properties;
+
+import javax.ejb.Startup;
+
+import org.junit.Test;
+
+public class OperatingCalendarsTest {
+
+	@Test
+	public void startupTest() {
+		// The rules are parsed when the application is deployed, not on the first request
+		assertNotNull(OperatingCalendars.class.getAnnotation(Startup.class));
+	}
+
+	@Test
+	public void loadTest() {
+		Properties rules = new Properties();
+		rules.setProperty("nice.weekly.SUNDAY", "closed");
+		OperatingCalendars calendars = new OperatingCalendars();
+		calendars.load(rules);
+		// 2020-11-08 is a Sunday
+		assertEquals(0, calendars.of("nice").openSlots(LocalDate.of(2020, 11, 8).toEpochDay()));
+		assertNotEquals(0, calendars.of("nice").openSlots(LocalDate.of(2020, 11, 9).toEpochDay()));
+	}
+
+	@Test
+	public void hoursTest() {
+		Properties rules = new Properties();
+		rules.setProperty("nice.weekly.MONDAY", "09:00-11:45");
+		rules.setProperty("nice.weekly.SUNDAY", "closed");
+		OperatingCalendar calendar = OperatingCalendar.parse(rules, "nice.");
+		long monday = LocalDate.of(2020, 11, 9).toEpochDay();
+		assertEquals(9, calendar.openingHour(monday));
+		assertEquals(12, calendar.closingHour(monday));
+		long sunday = LocalDate.of(2020, 11, 8).toEpochDay();
+		assertEquals(ScheduleBean.STARTING_HOUR, calendar.openingHour(sunday));
+		assertEquals(ScheduleBean.STARTING_HOUR, calendar.closingHour(sunday));
+		// The rejection reports the hours of the warehouse
+		ScheduleResult result = ScheduleResult.rejected(null, null, Rejection.OUTSIDE_OF_DELIVERY_HOURS, "9-12");
+		assertTrue(result.getError().getMessage().contains("before 9h and after 12h"));
+	}
+
+	@Test
+	public void invalidRuleTest() {
+		Properties rules = new Properties();
+		rules.setProperty("nice.weekly.SUNDAY", "9h-12h");
+		try {
+			new OperatingCalendars().load(rules);
+			fail();
+		} catch (IllegalStateException e) {
+			// The warehouse is named so that the rule can be found
+			assertTrue(e.getMessage().contains("[nice]"));
+		}
+	}
+
+	@Test
+	public void unknownRuleTest() {
+		Properties rules = new Properties();
+		rules.setProperty("nice.hours", "09:00-12:00");
+		try {
+			new OperatingCalendars().load(rules);
+			fail();
+		} catch (IllegalStateException e) {
+			assertNotNull(e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package fr.polytech.schedule.components;
+
+import static org.junit.Assert.assertEquals;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.Test;
+import fr.polytech.entities.TimeState;
+
+public class ScheduleBeanTest {
+
+	@Test
+	public void cheapestTest() {
+		Random random = new Random(42);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			for (int round = 0; round < 20; round++) {
+				DroneOccupancy[] occupancies = occupancies(random, 1 + random.nextInt(4000));
+				long key = SlotClock.key(SlotClock.today() + 1, random.nextInt(ScheduleBean.NUMBER_OF_SLOT_PER_DAYS));
+				for (Assignment assignment : Assignment.values()) {
+					int sequential = ScheduleBean.cheapest(occupancies, key, assignment, null);
+					assertEquals(firstCheapest(occupancies, key, assignment), sequential);
+					assertEquals(sequential, ScheduleBean.cheapest(occupancies, key, assignment, pool, 4));
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void cheapestBusyExecutorTest() throws Exception {
+		DroneOccupancy[] occupancies = occupancies(new Random(7), 4000);
+		long key = SlotClock.key(SlotClock.today() + 1, 3);
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			pool.submit(() -> {
+				release.await();
+				return null;
+			});
+			// The parts queued behind the busy thread are scanned by the caller
+			assertEquals(firstCheapest(occupancies, key, Assignment.BEST_FIT),
+					ScheduleBean.cheapest(occupancies, key, Assignment.BEST_FIT, pool, 4));
+		} finally {
+			release.countDown();
+			pool.shutdownNow();
+		}
+	}
+
+	private static DroneOccupancy[] occupancies(Random random, int size) {
+		long day = SlotClock.today() + 1;
+		DroneOccupancy[] occupancies = new DroneOccupancy[size];
+		for (int i = 0; i < occupancies.length; i++) {
+			occupancies[i] = new DroneOccupancy(String.format("%03d", i), day);
+			occupancies[i].rebuild(Collections.emptyList(), random.nextInt(DailyPlanRule.FLIGHT_TIME_BEFORE_REVIEW),
+					"identity");
+			for (int slots = random.nextInt(12); slots > 0; slots--) {
+				long key = SlotClock.key(day, random.nextInt(ScheduleBean.NUMBER_OF_SLOT_PER_DAYS));
+				occupancies[i].record(key, random.nextBoolean() ? TimeState.DELIVERY : TimeState.CHARGING);
+			}
+		}
+		return occupancies;
+	}
+
+	/**
+	 * The choice of the sequential scan
+	 */
+	private static int firstCheapest(DroneOccupancy[] occupancies, long key, AssignmentStrategy assignment) {
+		int best = -1;
+		long cost = Long.MAX_VALUE;
+		for (int i = 0; i < occupancies.length; i++) {
+			if (occupancies[i].isFree(key) && (best < 0 || assignment.cost(occupancies[i], key) < cost)) {
+				best = i;
+				cost = assignment.cost(occupancies[i], key);
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,170 @@
+package fr.polytech.schedule.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.enterprise.concurrent.ManagedExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import fr.polytech.entities.Delivery;
+
+/**
+ * The overflow of the pipeline needs a worker held in the middle of a batch,
+ * it is tested here against a scheduler stub rather than in the container.
+ */
+public class SchedulePipelineTest {
+
+	private ExecutorService pool;
+	private SchedulePipeline pipeline;
+	private ScheduleMetrics metrics;
+
+	// Batches wait for the release, the first one signals it is being booked
+	private CountDownLatch booking;
+	private CountDownLatch release;
+	private volatile RuntimeException failure;
+
+	@Before
+	public void init() throws Exception {
+		pool = Executors.newCachedThreadPool();
+		booking = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+		metrics = new ScheduleMetrics();
+		pipeline = new SchedulePipeline();
+		inject(pipeline, "executor", Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { ManagedExecutorService.class }, (proxy, method, args) -> {
+					try {
+						return method.invoke(pool, args);
+					} catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+				}));
+		inject(pipeline, "scheduler", Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { DeliveryScheduler.class }, (proxy, method, args) -> {
+					if (!method.getName().equals("scheduleDeliveries")) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					booking.countDown();
+					release.await();
+					if (failure != null) {
+						throw failure;
+					}
+					@SuppressWarnings("unchecked")
+					List<ScheduleRequest> requests = (List<ScheduleRequest>) args[0];
+					return requests.stream()
+							.map(request -> ScheduleResult.scheduled(request.getDelivery(), request.getDate(), null))
+							.collect(Collectors.toList());
+				}));
+		inject(pipeline, "metrics", metrics);
+		inject(pipeline, "capacity", 1);
+		inject(pipeline, "workerCount", 1);
+	}
+
+	@After
+	public void cleaningUp() {
+		release.countDown();
+		pipeline.stop();
+		pool.shutdownNow();
+	}
+
+	@Test
+	public void rejectTest() throws Exception {
+		inject(pipeline, "overflow", SchedulePipeline.Overflow.REJECT);
+		pipeline.start();
+		CompletableFuture<ScheduleResult> booked = pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD1"));
+		assertTrue(booking.await(5, TimeUnit.SECONDS));
+		CompletableFuture<ScheduleResult> queued = pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD2"));
+		CompletableFuture<ScheduleResult> overflowed = pipeline.submit(new GregorianCalendar(),
+				new Delivery("DDDDDDDDD3"));
+		assertTrue(overflowed.isCompletedExceptionally());
+		assertRejected(overflowed);
+		assertEquals(1, metrics.getOverflows());
+		assertTrue(metrics.getRejections().isEmpty());
+
+		release.countDown();
+		assertTrue(booked.get(5, TimeUnit.SECONDS).isScheduled());
+		assertTrue(queued.get(5, TimeUnit.SECONDS).isScheduled());
+	}
+
+	@Test
+	public void blockTest() throws Exception {
+		inject(pipeline, "overflow", SchedulePipeline.Overflow.BLOCK);
+		inject(pipeline, "offerTimeout", 5000L);
+		pipeline.start();
+		CompletableFuture<ScheduleResult> booked = pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD1"));
+		assertTrue(booking.await(5, TimeUnit.SECONDS));
+		pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD2"));
+		// Waits for the queue, emptied once the first batch is booked
+		CompletableFuture<CompletableFuture<ScheduleResult>> blocked = CompletableFuture
+				.supplyAsync(() -> pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD3")), pool);
+		Thread.sleep(100);
+		assertFalse(blocked.isDone());
+
+		release.countDown();
+		assertTrue(booked.get(5, TimeUnit.SECONDS).isScheduled());
+		assertTrue(blocked.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS).isScheduled());
+		assertEquals(0, metrics.getOverflows());
+	}
+
+	@Test
+	public void blockTimeoutTest() throws Exception {
+		inject(pipeline, "overflow", SchedulePipeline.Overflow.BLOCK);
+		inject(pipeline, "offerTimeout", 50L);
+		pipeline.start();
+		pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD1"));
+		assertTrue(booking.await(5, TimeUnit.SECONDS));
+		pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD2"));
+		assertRejected(pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD3")));
+		assertEquals(1, metrics.getOverflows());
+	}
+
+	@Test
+	public void batchFailureTest() throws Exception {
+		failure = new IllegalStateException("Rolled back");
+		inject(pipeline, "overflow", SchedulePipeline.Overflow.REJECT);
+		pipeline.start();
+		CompletableFuture<ScheduleResult> first = pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD1"));
+		assertTrue(booking.await(5, TimeUnit.SECONDS));
+		CompletableFuture<ScheduleResult> second = pipeline.submit(new GregorianCalendar(), new Delivery("DDDDDDDDD2"));
+		release.countDown();
+		for (CompletableFuture<ScheduleResult> result : Arrays.asList(first, second)) {
+			try {
+				result.get(5, TimeUnit.SECONDS);
+				fail();
+			} catch (ExecutionException e) {
+				assertSame(failure, e.getCause());
+			}
+		}
+	}
+
+	private static void assertRejected(CompletableFuture<ScheduleResult> result) throws Exception {
+		try {
+			result.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+	}
+
+	private static void inject(Object bean, String name, Object value) throws ReflectiveOperationException {
+		Field field = bean.getClass().getDeclaredField(name);
+		field.setAccessible(true);
+		field.set(bean, value);
+	}
+}
@@ -0,0 +1,45 @@
+package fr.polytech.schedule.components;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class SlotAvailabilityTest {
+
+	@Test
+	public void freeDronesTest() {
+		SlotAvailability availability = new SlotAvailability(0);
+		availability.add("000", 0b101L);
+		availability.add("001", 0b110L);
+		availability.add("000", 0b111L);
+		assertEquals(Collections.singletonList("000"), availability.freeDrones(0));
+		assertEquals(Collections.singletonList("001"), availability.freeDrones(1));
+		assertEquals(Arrays.asList("000", "001"), availability.freeDrones(2));
+		assertEquals(2, availability.count(2));
+		assertEquals("001", availability.firstFreeDrone(1));
+		assertNull(availability.firstFreeDrone(3));
+		assertEquals(0, availability.firstFree(0));
+		assertEquals(-1, availability.firstFree(3));
+	}
+
+	@Test
+	public void changedTest() {
+		SlotAvailability availability = new SlotAvailability(0);
+		availability.add("000", 0b11L);
+		availability.add("001", 0b10L);
+		availability.changed("000", 1, false);
+		// A change already applied is not counted twice
+		availability.changed("000", 1, false);
+		assertEquals(Collections.singletonList("001"), availability.freeDrones(1));
+		assertEquals(1, availability.count(1));
+		availability.changed("000", 0, false);
+		assertEquals(1, availability.firstFree(0));
+		availability.changed("000", 0, true);
+		assertEquals(0, availability.firstFree(0));
+		// Drones not counted are ignored
+		availability.changed("002", 2, true);
+		assertEquals(-1, availability.firstFree(2));
+	}
+}
@@ -0,0 +1,59 @@
+package fr.polytech.schedule.components;
+
+import static org.junit.Assert.assertEquals;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import org.junit.Test;
+
+public class SlotClockTest {
+
+	private static final ZoneId PARIS = ZoneId.of("Europe/Paris");
+
+	@Test
+	public void keyRoundTripTest() {
+		long today = SlotClock.today();
+		for (long epochDay = today - 1; epochDay <= today + 1; epochDay++) {
+			for (int slot = 0; slot < SlotClock.PLANNED_SLOTS; slot++) {
+				long key = SlotClock.key(epochDay, slot);
+				assertEquals(epochDay, SlotClock.day(key));
+				assertEquals(slot, SlotClock.slot(key));
+				long millis = SlotClock.toMillis(key);
+				assertEquals(key, SlotClock.keyOf(millis));
+				assertEquals(key, SlotClock.keyOf(millis + SlotClock.SLOT_MILLIS - 1));
+			}
+		}
+	}
+
+	@Test
+	public void alternatingDaysTest() {
+		long today = SlotClock.today();
+		long first = SlotClock.key(today, 0);
+		long tomorrow = SlotClock.key(today + 1, 0);
+		for (int i = 0; i < 10; i++) {
+			assertEquals(first, SlotClock.keyOf(SlotClock.toMillis(first)));
+			assertEquals(tomorrow, SlotClock.keyOf(SlotClock.toMillis(tomorrow)));
+			assertEquals(today, SlotClock.today());
+		}
+	}
+
+	@Test
+	public void daylightSavingDayTest() {
+		// Clocks go forward on the 29th of March 2020 in Paris, back on the 25th of October
+		long spring = LocalDate.of(2020, 3, 29).toEpochDay();
+		long autumn = LocalDate.of(2020, 10, 25).toEpochDay();
+		assertEquals(23 * 3600_000L, SlotClock.lengthOf(spring, PARIS));
+		assertEquals(25 * 3600_000L, SlotClock.lengthOf(autumn, PARIS));
+		for (long epochDay : new long[] { spring, autumn }) {
+			LocalDate date = LocalDate.ofEpochDay(epochDay);
+			for (int slot = 0; slot < SlotClock.PLANNED_SLOTS; slot++) {
+				long key = SlotClock.key(epochDay, slot);
+				long millis = SlotClock.toMillis(key, PARIS);
+				LocalDateTime start = date.atTime(SlotClock.OPENING_HOUR, 0).plusMinutes((long) slot * SlotClock.SLOT_MINUTES);
+				assertEquals(start, LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), PARIS));
+				assertEquals(key, SlotClock.keyOf(millis, PARIS));
+			}
+		}
+	}
+}